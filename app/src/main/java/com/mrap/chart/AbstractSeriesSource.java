@@ -0,0 +1,91 @@
+package com.mrap.chart;
+
+/**
+ * Base for read only sources already sorted by x: bounds are computed by one scan in
+ * {@link #prepare()} and range lookups are binary searches over {@link #getX(int)}.
+ */
+public abstract class AbstractSeriesSource implements SeriesSource {
+  protected int version = 0;
+
+  protected double minX = Double.NaN;
+  protected double maxX = Double.NaN;
+  protected double minY = Double.NaN;
+  protected double maxY = Double.NaN;
+
+  @Override
+  public int getVersion() {
+    return version;
+  }
+
+  /**
+   * To be called when the underlying points changed, before handing the source to the chart
+   * again.
+   */
+  protected void notifyChanged() {
+    version++;
+    minX = maxX = minY = maxY = Double.NaN;
+  }
+
+  @Override
+  public void prepare() {
+    if (!Double.isNaN(minX)) {
+      return;
+    }
+    double lo = Double.POSITIVE_INFINITY, hi = Double.NEGATIVE_INFINITY;
+    double prevX = Double.NEGATIVE_INFINITY;
+    int n = size();
+    for (int i = 0; i < n; i++) {
+      double x = getX(i), y = getY(i);
+      if (x < prevX) {
+        throw new IllegalStateException("not sorted by x at index " + i);
+      }
+      prevX = x;
+      if (y < lo) {
+        lo = y;
+      }
+      if (y > hi) {
+        hi = y;
+      }
+    }
+    if (n > 0) {
+      minX = getX(0);
+      maxX = getX(n - 1);
+      minY = lo;
+      maxY = hi;
+    }
+  }
+
+  @Override
+  public double getMinX() {
+    return minX;
+  }
+
+  @Override
+  public double getMaxX() {
+    return maxX;
+  }
+
+  @Override
+  public double getMinY() {
+    return minY;
+  }
+
+  @Override
+  public double getMaxY() {
+    return maxY;
+  }
+
+  @Override
+  public int lowerBound(double x, int from, int to) {
+    int lo = from, hi = to;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (getX(mid) < x) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+}
@@ -0,0 +1,284 @@
+package com.mrap.chart;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.view.View;
+
+/**
+ * Rasterizes chart segments on a render thread shared by all charts, into two bitmaps that are
+ * swapped when a batch is done. The UI thread only ever blits the front bitmap.
+ *
+ * <p>Every batch is drawn into both bitmaps: batch N goes into the back bitmap, which is then
+ * published, and is replayed into the other bitmap right before batch N + 1. Only one batch is
+ * in flight at a time and a new one is only accepted after the UI has drawn the last published
+ * frame, so the render thread never writes a bitmap the UI may still be reading.
+ */
+final class BackgroundRenderer {
+
+  /**
+   * Segments of one animation step, grouped in runs. A run is either in {@link Canvas#drawLines}
+   * layout or, for strips, the points of a polyline.
+   */
+  static final class Batch {
+    private static final int MAX_KEPT_FLOATS = 1 << 16;
+
+    boolean clear = false;
+    float[] lines = new float[0];
+    int size = 0;
+    int[] runStart = new int[0];
+    int[] runCount = new int[0];
+    Paint[] runPaint = new Paint[0];
+    boolean[] runStrip = new boolean[0];
+    int runs = 0;
+    /** View area the batch draws on, invalidated once published. Empty invalidates the view. */
+    final Rect dirty = new Rect();
+    // touched by the render thread only
+    private final Path path = new Path();
+
+    void reset() {
+      clear = false;
+      if (lines.length > MAX_KEPT_FLOATS) {
+        // left by a pass drawing a whole series at once, animation steps need a fraction of it
+        lines = new float[0];
+      }
+      size = 0;
+      runs = 0;
+      dirty.setEmpty();
+      for (int i = 0; i < runPaint.length; i++) {
+        runPaint[i] = null;
+      }
+    }
+
+    void add(float[] src, int count, Paint paint) {
+      if (count == 0) {
+        return;
+      }
+      int start = addRun(count, paint, false);
+      System.arraycopy(src, 0, lines, start, count);
+    }
+
+    /** Adds a polyline of {@code count / 2} points, see {@link #stripToPath}. */
+    void addStrip(float[] src, int offset, int count, Paint paint) {
+      if (count == 0) {
+        return;
+      }
+      int start = addRun(count, paint, true);
+      System.arraycopy(src, offset, lines, start, count);
+    }
+
+    private int addRun(int count, Paint paint, boolean strip) {
+      if (size + count > lines.length) {
+        float[] newLines = new float[Math.max(size + count, lines.length * 2)];
+        System.arraycopy(lines, 0, newLines, 0, size);
+        lines = newLines;
+      }
+      if (runs == runStart.length) {
+        int n = Math.max(runs * 2, 8);
+        int[] newStart = new int[n];
+        int[] newCount = new int[n];
+        Paint[] newPaint = new Paint[n];
+        boolean[] newStrip = new boolean[n];
+        System.arraycopy(runStart, 0, newStart, 0, runs);
+        System.arraycopy(runCount, 0, newCount, 0, runs);
+        System.arraycopy(runPaint, 0, newPaint, 0, runs);
+        System.arraycopy(runStrip, 0, newStrip, 0, runs);
+        runStart = newStart;
+        runCount = newCount;
+        runPaint = newPaint;
+        runStrip = newStrip;
+      }
+      int start = size;
+      runStart[runs] = start;
+      runCount[runs] = count;
+      runPaint[runs] = paint;
+      runStrip[runs] = strip;
+      runs++;
+      size += count;
+      return start;
+    }
+
+    void drawTo(Canvas canvas, int clearColor) {
+      if (clear) {
+        if (clearColor == Color.TRANSPARENT) {
+          canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+        } else {
+          canvas.drawColor(clearColor);
+        }
+      }
+      for (int r = 0; r < runs; r++) {
+        int start = runStart[r], count = runCount[r];
+        Paint p = runPaint[r];
+        if (runStrip[r]) {
+          stripToPath(path, lines, start, count);
+          canvas.drawPath(path, p);
+          continue;
+        }
+        canvas.drawLines(lines, start, count, p);
+        if (count == 4 &&
+            lines[start] == lines[start + 2] &&
+            lines[start + 1] == lines[start + 3]) {
+          canvas.drawCircle(lines[start], lines[start + 1], p.getStrokeWidth() / 2, p);
+        }
+      }
+    }
+  }
+
+  /**
+   * Rewinds {@code path} to the polyline through the points of {@code pts}. A strip starts at
+   * the last point of the previous one, where the round caps of both make the join. A single
+   * point gives a zero length line, drawn as a dot by the round caps.
+   */
+  static void stripToPath(Path path, float[] pts, int offset, int count) {
+    path.rewind();
+    path.moveTo(pts[offset], pts[offset + 1]);
+    for (int k = 2; k < count; k += 2) {
+      path.lineTo(pts[offset + k], pts[offset + k + 1]);
+    }
+    if (count == 2) {
+      path.lineTo(pts[offset], pts[offset + 1]);
+    }
+  }
+
+  private static Handler renderHandler = null;
+
+  private static synchronized Handler getRenderHandler() {
+    if (renderHandler == null) {
+      HandlerThread thread = new HandlerThread("ExpandingLineChartRender", Process.THREAD_PRIORITY_DISPLAY);
+      thread.start();
+      renderHandler = new Handler(thread.getLooper());
+    }
+    return renderHandler;
+  }
+
+  private final View view;
+  private final int clearColor;
+  private final Bitmap[] bitmaps = new Bitmap[2];
+  private final Canvas[] canvases = new Canvas[2];
+  private final Batch[] batches = {new Batch(), new Batch()};
+  private int fillIdx = 0;
+
+  private volatile int front = 0;
+  private volatile int publishedSeq = 0;
+  private volatile boolean inFlight = false;
+  private int drawnSeq = 0;
+
+  // touched by the render thread only
+  private Batch pending = null;
+  private Batch replay = null;
+
+  private final Runnable renderRunnable = new Runnable() {
+    @Override
+    public void run() {
+      int back = 1 - front;
+      Canvas canvas = canvases[back];
+      if (replay != null) {
+        replay.drawTo(canvas, clearColor);
+      }
+      pending.drawTo(canvas, clearColor);
+      replay = pending;
+      pending = null;
+      // read before the batch can be refilled
+      boolean whole = replay.clear || replay.dirty.isEmpty();
+      int left = replay.dirty.left, top = replay.dirty.top;
+      int right = replay.dirty.right, bottom = replay.dirty.bottom;
+
+      front = back;
+      publishedSeq = publishedSeq + 1;
+      inFlight = false;
+      if (whole) {
+        view.postInvalidate();
+      } else {
+        view.postInvalidate(left, top, right, bottom);
+      }
+    }
+  };
+
+  /**
+   * @param clearColor what a cleared bitmap is filled with, transparent for configs with alpha
+   */
+  BackgroundRenderer(View view, int width, int height, Bitmap.Config config, int clearColor) {
+    this.view = view;
+    this.clearColor = clearColor;
+    for (int i = 0; i < 2; i++) {
+      bitmaps[i] = BitmapPool.obtain(width, height, config);
+      canvases[i] = new Canvas(bitmaps[i]);
+      if (clearColor != Color.TRANSPARENT) {
+        canvases[i].drawColor(clearColor);
+      }
+    }
+  }
+
+  /**
+   * Bitmap to draw on screen. Must be called from onDraw, it also records which frame the UI
+   * has seen.
+   */
+  Bitmap getFrontForDraw() {
+    drawnSeq = publishedSeq;
+    return bitmaps[front];
+  }
+
+  Bitmap getFront() {
+    return bitmaps[front];
+  }
+
+  /**
+   * True when a new batch can be submitted: nothing is in flight and the latest published frame
+   * has been drawn by the UI.
+   */
+  boolean isReady() {
+    return !inFlight && drawnSeq == publishedSeq;
+  }
+
+  /**
+   * True when the latest published frame is still waiting for onDraw.
+   */
+  boolean isWaitingForDraw() {
+    return !inFlight && drawnSeq != publishedSeq;
+  }
+
+  /**
+   * Returns the batch to fill for the next submit, already reset. Only valid while
+   * {@link #isReady()}.
+   */
+  Batch obtainBatch() {
+    Batch batch = batches[fillIdx];
+    batch.reset();
+    return batch;
+  }
+
+  void submit(Batch batch) {
+    fillIdx = 1 - fillIdx;
+    pending = batch;
+    inFlight = true;
+    getRenderHandler().post(renderRunnable);
+  }
+
+  Bitmap[] getBitmaps() {
+    return bitmaps;
+  }
+
+  /**
+   * Gives both bitmaps back to the pool once the render thread is done with them. The renderer
+   * must not be used afterwards.
+   */
+  void release() {
+    getRenderHandler().post(new Runnable() {
+      @Override
+      public void run() {
+        for (int i = 0; i < 2; i++) {
+          BitmapPool.release(bitmaps[i]);
+          bitmaps[i] = null;
+          canvases[i] = null;
+        }
+      }
+    });
+  }
+}
@@ -0,0 +1,131 @@
+package com.mrap.chart;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import java.util.ArrayList;
+
+/**
+ * Bitmaps released by charts, shared by every chart in the process. A chart that needs a bitmap
+ * gets the smallest released one that is large enough, and at most twice the size, reconfigured
+ * to the requested size, so layout passes and charts in recycled lists do not allocate
+ * multi-megabyte bitmaps each time. Emptied when the system asks the app to trim memory.
+ * Callable from any thread.
+ */
+final class BitmapPool {
+  private static final long MAX_BYTES = 32 * 1024 * 1024;
+  // a pooled bitmap more than this many times larger than the request is left for a larger
+  // chart, rather than held by a small one while the large one allocates
+  private static final int MAX_OVERSIZE = 2;
+
+  private static final ArrayList<Bitmap> pool = new ArrayList<>();
+  private static long pooledBytes = 0;
+  private static boolean registered = false;
+
+  private BitmapPool() {
+  }
+
+  /**
+   * Empties the pool when the system reports memory running low or the app's UI hidden. Only the
+   * first call registers, on the application context.
+   */
+  static void register(Context context) {
+    synchronized (pool) {
+      if (registered) {
+        return;
+      }
+      registered = true;
+    }
+    context.getApplicationContext().registerComponentCallbacks(new ComponentCallbacks2() {
+      @Override
+      public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+          clear();
+        }
+      }
+
+      @Override
+      public void onLowMemory() {
+        clear();
+      }
+
+      @Override
+      public void onConfigurationChanged(Configuration newConfig) {
+      }
+    });
+  }
+
+  /**
+   * Drops every pooled bitmap, the GC takes them from there. Bitmaps in use are not affected.
+   */
+  static void clear() {
+    synchronized (pool) {
+      pool.clear();
+      pooledBytes = 0;
+    }
+  }
+
+  /**
+   * Returns a transparent (or, for opaque configs, black) bitmap of the given size.
+   */
+  static Bitmap obtain(int width, int height, Bitmap.Config config) {
+    long needed = (long) width * height * bytesPerPixel(config);
+    Bitmap best = null;
+    synchronized (pool) {
+      for (int i = 0; i < pool.size(); i++) {
+        Bitmap b = pool.get(i);
+        if (b.getAllocationByteCount() >= needed &&
+            b.getAllocationByteCount() <= needed * MAX_OVERSIZE &&
+            (best == null || b.getAllocationByteCount() < best.getAllocationByteCount())) {
+          best = b;
+        }
+      }
+      if (best != null) {
+        pool.remove(best);
+        pooledBytes -= best.getAllocationByteCount();
+      }
+    }
+
+    if (best == null) {
+      return Bitmap.createBitmap(width, height, config);
+    }
+    best.reconfigure(width, height, config);
+    best.eraseColor(Color.TRANSPARENT);
+    return best;
+  }
+
+  /**
+   * Gives a bitmap back for reuse. The caller must not touch it afterwards.
+   */
+  static void release(Bitmap bitmap) {
+    if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+      return;
+    }
+    synchronized (pool) {
+      if (pool.contains(bitmap)) {
+        return;
+      }
+      pool.add(bitmap);
+      pooledBytes += bitmap.getAllocationByteCount();
+      // drop the oldest ones, the GC takes them from there
+      while (pooledBytes > MAX_BYTES && !pool.isEmpty()) {
+        pooledBytes -= pool.remove(0).getAllocationByteCount();
+      }
+    }
+  }
+
+  private static int bytesPerPixel(Bitmap.Config config) {
+    switch (config) {
+      case ALPHA_8:
+        return 1;
+      case RGB_565:
+      case ARGB_4444:
+        return 2;
+      default:
+        return 4;
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package com.mrap.chart;
+
+import android.database.Cursor;
+
+/**
+ * Reads x and y straight from two columns of a database cursor, e.g. a SQLite query ordered by
+ * x. Only the cursor window around the rows being read is in memory. A cursor is not thread
+ * safe, so the chart must be the only one reading it.
+ */
+public class CursorSeries extends AbstractSeriesSource {
+  private final Cursor cursor;
+  private final int xColumn;
+  private final int yColumn;
+  private final int count;
+
+  public CursorSeries(Cursor cursor, int xColumn, int yColumn) {
+    this.cursor = cursor;
+    this.xColumn = xColumn;
+    this.yColumn = yColumn;
+    count = cursor.getCount();
+  }
+
+  @Override
+  public int size() {
+    return count;
+  }
+
+  @Override
+  public double getX(int i) {
+    moveTo(i);
+    return cursor.getDouble(xColumn);
+  }
+
+  @Override
+  public double getY(int i) {
+    moveTo(i);
+    return cursor.getDouble(yColumn);
+  }
+
+  private void moveTo(int i) {
+    if (cursor.getPosition() != i && !cursor.moveToPosition(i)) {
+      throw new IndexOutOfBoundsException("row " + i + " of " + count);
+    }
+  }
+}
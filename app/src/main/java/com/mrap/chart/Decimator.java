@@ -0,0 +1,389 @@
+package com.mrap.chart;
+
+/**
+ * Reduces one series to what can actually be seen at a given bitmap width.
+ * <ul>
+ * <li>{@link ExpandingLineChart#DECIMATION_MINMAX} keeps the first, min, max and last point of
+ * every pixel column (M4), which draws the same pixels as the full series.</li>
+ * <li>{@link ExpandingLineChart#DECIMATION_LTTB} keeps a fixed number of points chosen with
+ * Largest-Triangle-Three-Buckets, which preserves the shape but not every spike.</li>
+ * </ul>
+ * Only the points between xFrom and xTo, plus one on each side so the lines leave the chart
+ * edges, are looked at; they are found by binary search. Min/max reads them through a
+ * {@link LodPyramid} built once per series, so its cost follows the width rather than the number
+ * of points. Results are cached per bitmap width (a couple of them, so going back and forth
+ * between portrait and landscape hits the cache) and are only recomputed when the source series,
+ * the width or the x range changes.
+ */
+class Decimator {
+  private static final int CACHE_SIZE = 2;
+
+  private static class Entry {
+    SeriesData output = null;
+    int mode;
+    int width;
+    int target;
+    double xFrom;
+    double xTo;
+    int sourceVersion = -1;
+    int sourceSize = 0;
+    long lastUsed = 0;
+
+    // where the last (still open) pixel column starts, in source and in output indices
+    int lastColumnIn = 0;
+    int lastColumnOut = 0;
+  }
+
+  private final Entry[] entries = new Entry[CACHE_SIZE];
+  private final LodPyramid pyramid = new LodPyramid();
+  private Entry current = null;
+  private long useCount = 0;
+
+  /**
+   * Returns the series to draw, recomputing it only when something it depends on changed.
+   *
+   * @param target point count for LTTB, 0 uses the width
+   */
+  SeriesSource get(SeriesSource source, int mode, int width, int target, double xFrom, double xTo) {
+    if (xTo <= xFrom) {
+      current = null;
+      return source;
+    }
+    if (mode == ExpandingLineChart.DECIMATION_NONE || width <= 0) {
+      current = null;
+      int from = visibleFrom(source, xFrom), to = visibleTo(source, xTo);
+      if (from == 0 && to == source.size()) {
+        return source;
+      }
+      return range(source, from, to);
+    }
+    if (mode != ExpandingLineChart.DECIMATION_LTTB) {
+      target = 0;
+    } else if (target <= 0) {
+      target = width;
+    }
+
+    Entry lru = null;
+    for (int i = 0; i < entries.length; i++) {
+      Entry e = entries[i];
+      if (e == null) {
+        e = entries[i] = new Entry();
+      }
+      if (e.output != null && e.mode == mode && e.width == width && e.target == target &&
+          e.xFrom == xFrom && e.xTo == xTo && e.sourceVersion == source.getVersion()) {
+        e.lastUsed = ++useCount;
+        current = e;
+        return e.output;
+      }
+      if (lru == null || e.lastUsed < lru.lastUsed) {
+        lru = e;
+      }
+    }
+
+    Entry e = lru;
+    e.mode = mode;
+    e.width = width;
+    e.target = target;
+    e.xFrom = xFrom;
+    e.xTo = xTo;
+    e.lastUsed = ++useCount;
+
+    int from = visibleFrom(source, xFrom), to = visibleTo(source, xTo);
+    if (e.output == null) {
+      e.output = new SeriesData(Math.min(to - from, 4 * width + 4));
+    } else {
+      e.output.clear();
+    }
+
+    if (mode == ExpandingLineChart.DECIMATION_LTTB) {
+      lttb(source, from, to, target, e.output);
+    } else {
+      e.lastColumnIn = from;
+      e.lastColumnOut = 0;
+      if (!pyramid.isBuiltFor(source)) {
+        pyramid.build(source);
+      }
+      minMaxLod(source, from, to, e);
+    }
+
+    e.sourceVersion = source.getVersion();
+    e.sourceSize = source.size();
+    current = e;
+    return e.output;
+  }
+
+  /**
+   * Builds the level of detail pyramid of {@code source} ahead of the first min/max decimation,
+   * on a worker thread before the decimator is handed to the chart.
+   */
+  void prime(SeriesSource source) {
+    if (!pyramid.isBuiltFor(source)) {
+      pyramid.build(source);
+    }
+  }
+
+  /**
+   * Keeps the level of detail pyramid of {@code source} current after points were appended in x
+   * order, so later zoom levels do not have to rebuild it.
+   */
+  void appended(SeriesSource source) {
+    if (pyramid.getSource() == source) {
+      pyramid.update(source);
+    }
+  }
+
+  /**
+   * Brings the current output up to date after points were appended to the source. For min/max
+   * only the last pixel column and everything after it are recomputed. LTTB buckets depend on
+   * the total point count, so it always has to start over.
+   *
+   * @return the first output index that changed, or -1 when the output has to be rebuilt and
+   * everything drawn from it so far is stale
+   */
+  int append(SeriesSource source) {
+    Entry e = current;
+    if (e == null || e.mode != ExpandingLineChart.DECIMATION_MINMAX ||
+        source.size() < e.sourceSize) {
+      return -1;
+    }
+
+    e.output.truncate(e.lastColumnOut);
+    int changedFrom = e.output.size();
+    minMax(source, e.lastColumnIn, visibleTo(source, e.xTo), e);
+
+    e.sourceVersion = source.getVersion();
+    e.sourceSize = source.size();
+    return changedFrom;
+  }
+
+  /** Index of the last point left of xFrom, or 0. */
+  private static int visibleFrom(SeriesSource source, double xFrom) {
+    return Math.max(source.lowerBound(xFrom, 0, source.size()) - 1, 0);
+  }
+
+  /** One past the index of the first point right of xTo, or the size. */
+  private static int visibleTo(SeriesSource source, double xTo) {
+    return Math.min(source.lowerBound(Math.nextUp(xTo), 0, source.size()) + 1, source.size());
+  }
+
+  /** Points {@code from} to {@code to - 1} of {@code source}, without copying. */
+  private static SeriesSource range(SeriesSource source, int from, int to) {
+    if (source instanceof SeriesData) {
+      return ((SeriesData) source).view(from, to);
+    }
+    return new Range(source, from, to);
+  }
+
+  private static final class Range extends AbstractSeriesSource {
+    private final SeriesSource source;
+    private final int from;
+    private final int size;
+
+    Range(SeriesSource source, int from, int to) {
+      this.source = source;
+      this.from = from;
+      size = to - from;
+      version = source.getVersion();
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public double getX(int i) {
+      return source.getX(from + i);
+    }
+
+    @Override
+    public double getY(int i) {
+      return source.getY(from + i);
+    }
+
+    @Override
+    public int lowerBound(double x, int from, int to) {
+      return source.lowerBound(x, this.from + from, this.from + to) - this.from;
+    }
+  }
+
+  private void minMax(SeriesSource src, int from, int to, Entry e) {
+    beginColumns();
+    feedRange(src, from, to, e);
+    endColumns(src, e);
+  }
+
+  /**
+   * Same result as {@link #minMax} but reads whole buckets from the pyramid, at the coarsest
+   * level that still has about one bucket per pixel column. Only partial buckets at both ends
+   * and buckets split at column edges are read point by point.
+   */
+  private void minMaxLod(SeriesSource src, int from, int to, Entry e) {
+    int level = 31 - Integer.numberOfLeadingZeros(Math.max((to - from) / e.width, 1));
+    level = Math.min(level, pyramid.maxLevel());
+    if (level < pyramid.minLevel()) {
+      minMax(src, from, to, e);
+      return;
+    }
+
+    int bucketFrom = (from + (1 << level) - 1) >> level;
+    int bucketTo = to >> level;
+    beginColumns();
+    feedRange(src, from, Math.min(bucketFrom << level, to), e);
+    for (int b = bucketFrom; b < bucketTo; b++) {
+      feedBucket(src, level, b, e);
+    }
+    if (bucketTo >= bucketFrom) {
+      feedRange(src, Math.max(bucketTo << level, from), to, e);
+    }
+    endColumns(src, e);
+  }
+
+  /**
+   * A bucket within one pixel column only adds its first, min, max and last point. One that
+   * crosses a column edge is split in its two halves, down to single points.
+   */
+  private void feedBucket(SeriesSource src, int level, int b, Entry e) {
+    int first = b << level, last = ((b + 1) << level) - 1;
+    if (level < pyramid.minLevel()) {
+      feedRange(src, first, last + 1, e);
+      return;
+    }
+    if (column(src, first, e) != column(src, last, e)) {
+      feedBucket(src, level - 1, b * 2, e);
+      feedBucket(src, level - 1, b * 2 + 1, e);
+      return;
+    }
+    int lo = pyramid.getMinIndex(level, b), hi = pyramid.getMaxIndex(level, b);
+    int p1 = Math.min(lo, hi), p2 = Math.max(lo, hi);
+    feed(src, first, e);
+    if (p1 != first) {
+      feed(src, p1, e);
+    }
+    if (p2 != p1) {
+      feed(src, p2, e);
+    }
+    if (last != p2) {
+      feed(src, last, e);
+    }
+  }
+
+  private static long column(SeriesSource src, int j, Entry e) {
+    return (long) Math.floor((src.getX(j) - e.xFrom) * e.width / (e.xTo - e.xFrom));
+  }
+
+  // state of the pixel column being reduced
+  private long col;
+  private int first, min, max, last;
+  private double minY, maxY;
+
+  private void beginColumns() {
+    col = Long.MIN_VALUE;
+    first = min = max = last = -1;
+  }
+
+  private void feedRange(SeriesSource src, int from, int to, Entry e) {
+    for (int j = from; j < to; j++) {
+      feed(src, j, e);
+    }
+  }
+
+  private void feed(SeriesSource src, int j, Entry e) {
+    double y = src.getY(j);
+    long c = column(src, j, e);
+    if (c != col) {
+      if (first >= 0) {
+        emit(src, first, min, max, last, e.output);
+      }
+      col = c;
+      first = min = max = last = j;
+      minY = maxY = y;
+      e.lastColumnIn = j;
+      e.lastColumnOut = e.output.size();
+      return;
+    }
+    if (y < minY) {
+      minY = y;
+      min = j;
+    }
+    if (y > maxY) {
+      maxY = y;
+      max = j;
+    }
+    last = j;
+  }
+
+  private void endColumns(SeriesSource src, Entry e) {
+    if (first >= 0) {
+      emit(src, first, min, max, last, e.output);
+    }
+  }
+
+  private static void emit(SeriesSource src, int first, int min, int max, int last, SeriesData output) {
+    int b = Math.min(min, max), c = Math.max(min, max);
+    output.add(src.getX(first), src.getY(first));
+    if (b != first) {
+      output.add(src.getX(b), src.getY(b));
+    }
+    if (c != b) {
+      output.add(src.getX(c), src.getY(c));
+    }
+    if (last != c) {
+      output.add(src.getX(last), src.getY(last));
+    }
+  }
+
+  private static void lttb(SeriesSource src, int from, int to, int threshold, SeriesData output) {
+    if (from > 0 || to < src.size()) {
+      src = range(src, from, to);
+    }
+    int n = src.size();
+    if (threshold >= n || threshold < 3) {
+      for (int j = 0; j < n; j++) {
+        output.add(src.getX(j), src.getY(j));
+      }
+      return;
+    }
+
+    double every = (double) (n - 2) / (threshold - 2);
+    int a = 0;
+    output.add(src.getX(a), src.getY(a));
+
+    for (int i = 0; i < threshold - 2; i++) {
+      // average of the next bucket is the third triangle vertex
+      int avgStart = (int) Math.floor((i + 1) * every) + 1;
+      int avgEnd = Math.min((int) Math.floor((i + 2) * every) + 1, n);
+      double avgX = 0, avgY = 0;
+      for (int j = avgStart; j < avgEnd; j++) {
+        avgX += src.getX(j);
+        avgY += src.getY(j);
+      }
+      int avgLen = avgEnd - avgStart;
+      if (avgLen > 0) {
+        avgX /= avgLen;
+        avgY /= avgLen;
+      } else {
+        avgX = src.getX(n - 1);
+        avgY = src.getY(n - 1);
+      }
+
+      int rangeStart = (int) Math.floor(i * every) + 1;
+      int rangeEnd = (int) Math.floor((i + 1) * every) + 1;
+      double ax = src.getX(a), ay = src.getY(a);
+      double maxArea = -1;
+      int next = rangeStart;
+      for (int j = rangeStart; j < rangeEnd; j++) {
+        double area = Math.abs((ax - avgX) * (src.getY(j) - ay) - (ax - src.getX(j)) * (avgY - ay));
+        if (area > maxArea) {
+          maxArea = area;
+          next = j;
+        }
+      }
+
+      output.add(src.getX(next), src.getY(next));
+      a = next;
+    }
+
+    output.add(src.getX(n - 1), src.getY(n - 1));
+  }
+}
@@ -5,19 +5,29 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.Path;
 import android.graphics.PorterDuff;
 import android.graphics.Rect;
-import android.os.Handler;
+import android.os.Looper;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
 import android.view.View;
+import android.view.ViewParent;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -27,6 +37,13 @@ public class ExpandingLineChart extends View {
   public static int TYPE_DATE = 1;
   public static int TYPE_NOTYPE = -1;
 
+  public static final int DECIMATION_NONE = 0;
+  public static final int DECIMATION_MINMAX = 1;
+  public static final int DECIMATION_LTTB = 2;
+
+  public static final int LINE_SEGMENTS = 0;
+  public static final int LINE_STRIP = 1;
+
   public static class Params {
     public Ticks xTicks = new Ticks();
     public Ticks yTicks = new Ticks();
@@ -34,9 +51,35 @@ public class ExpandingLineChart extends View {
     public boolean yValueLabelEnabled = false;
     public ArrayList<String> legend = null;
     public ArrayList<ArrayList<PointD>> datasets = null;
+    public List<? extends SeriesSource> series = null;
     public ArrayList<String> colors = null;
     public int fps = 12;
     public int drawCountPerFrame = 1;
+    /** Reveal the series over this long instead of drawCountPerFrame points per frame, 0 is off. */
+    public long revealDurationMs = 0;
+    /** Rasterizing time a reveal frame may take, slower devices then take longer than revealDurationMs. */
+    public float frameBudgetMs = 4;
+    /** Draw the final state in one pass, without the expanding animation. */
+    public boolean skipAnimation = false;
+    /** Width of the sliding x window for live data, 0 shows the whole data range. */
+    public double xWindow = 0;
+    /** How series are reduced before drawing, see {@link #DECIMATION_MINMAX}. */
+    public int decimation = DECIMATION_MINMAX;
+    /** Point count per series for {@link #DECIMATION_LTTB}, 0 uses the chart width. */
+    public int decimationTarget = 0;
+    /** How the lines are rasterized, see {@link #setLineMode(int)}. */
+    public int lineMode = LINE_SEGMENTS;
+    /** Rasterize on a background thread into double-buffered bitmaps, ignored in window mode. */
+    public boolean renderInBackground = false;
+    /** Pan with a drag, zoom x with a pinch, double tap shows the whole data range again. */
+    public boolean viewportGestures = false;
+    /**
+     * Config of the chart bitmaps, {@link Bitmap.Config#RGB_565} halves their memory but is
+     * opaque, see {@link #setBitmapConfig(Bitmap.Config, int)}.
+     */
+    public Bitmap.Config bitmapConfig = Bitmap.Config.ARGB_8888;
+    /** Background of opaque chart bitmaps. */
+    public int chartBackground = Color.WHITE;
     public int xType = TYPE_NUMBER;
     public int yType = TYPE_NUMBER;
     public String xFormat = "";
@@ -98,9 +141,11 @@ public class ExpandingLineChart extends View {
 
   private static final String TAG = "ExpandingLineChart";
 
-  protected float[] toDraw = new float[4000];
+  // per frame vertex batches, grown by ensureVertexCapacity() and reused afterwards
+  protected float[] toDraw = new float[0];
   protected float[] vtxBuff = new float[1000];
-  protected int[] toDrawSizes = new int[100];
+  protected int[] toDrawSizes = new int[0];
+  protected int toDrawStride = 0;
 
   protected int xAlreadyDrawn = 0;
 
@@ -109,19 +154,115 @@ public class ExpandingLineChart extends View {
   protected double xMin = Double.MAX_VALUE;
   protected double xMax = Double.MIN_VALUE;
 
-  protected ArrayList<ArrayList<PointD>> datasetList = new ArrayList<>();
+  protected ArrayList<SeriesSource> seriesList = new ArrayList<>();
+  protected ArrayList<SeriesSource> renderList = new ArrayList<>();
+  protected ArrayList<Decimator> decimators = new ArrayList<>();
+  protected int decimation = DECIMATION_MINMAX;
+  protected int decimationTarget = 0;
   protected ArrayList<String> legendList = new ArrayList<>();
 
   protected ArrayList<Paint> paintList = new ArrayList<>();
+  // stroke versions of paintList with round joins, for LINE_STRIP
+  protected ArrayList<Paint> stripPaintList = new ArrayList<>();
+  protected int lineMode = LINE_SEGMENTS;
+  // reused by every strip drawn on the main thread, replaced by tests
+  Path stripPath = new Path();
   protected Paint yAxisTextPaint;
   protected Paint xAxisTextPaint;
   protected Paint gridPaint;
   protected Paint axisPaint;
 
   protected Bitmap chartBmp = null;
+  protected Bitmap scrollBmp = null;
+  protected Bitmap chromeBmp = null;
+  protected Bitmap.Config bitmapConfig = Bitmap.Config.ARGB_8888;
+  protected int chartBackground = Color.WHITE;
+  protected Canvas chromeCanvas = null;
+  protected volatile boolean chromeDirty = true;
+  protected ValueLabelLayout valueLabelLayout = new ValueLabelLayout();
+
+  // reused by onDraw so that drawing a frame does not allocate
+  private final Rect chartRect = new Rect();
+  private final Rect dirtyRect = new Rect();
+  private final double[] xyBuff = new double[2];
+  protected BackgroundRenderer renderer = null;
+  protected boolean renderInBackground = false;
+  // per series, first render index behind the animation front still to be drawn by the renderer
+  protected int[] lateFrom = new int[0];
+  // draw everything on the next frame instead of expanding, cleared once done
+  protected boolean redrawAtOnce = false;
+
+  protected boolean viewportGestures = false;
+  // viewport set by setXRange, the x ticks overrides it replaced are restored by resetXRange
+  protected boolean xRangeSet = false;
+  private boolean savedOverrideMin = false;
+  private boolean savedOverrideMax = false;
+  private double savedValueMin = 0;
+  private double savedValueMax = 0;
+  private GestureDetector gestureDetector = null;
+  private ScaleGestureDetector scaleGestureDetector = null;
+  // bumped by every setData, a setDataAsync result is only applied if it is still the latest
+  protected int asyncGeneration = 0;
+  // bumped by every replaceSeries of that series, a replaceSeriesAsync result is only applied if
+  // it is still the latest
+  private int[] replaceGeneration = new int[0];
+  protected Canvas scrollCanvas = null;
+
+  protected double xWindow = 0;
+  protected double windowEnd = 0;
+  protected int[] windowDrawn = new int[0];
 
   protected int drawCountPerFrame = 1;
-  protected long interval = 1000 / 12;
+  protected long frameIntervalNanos = 1000000000L / 12;
+  // frames that passed since the last animation step, scales the work done in drawChart
+  protected int frameSteps = 1;
+  protected long lastStepNanos = 0;
+
+  private static final int MAX_CATCH_UP_STEPS = 4;
+  // floats of vtxBuff per draw call when everything is drawn at once, bounds the buffer
+  // whatever the series size
+  private static final int AT_ONCE_CHUNK = 8192;
+  // points per series of a timed reveal frame before the cost of a point has been measured
+  private static final int FIRST_REVEAL_STEPS = 1024;
+
+  protected long revealDurationNanos = 0;
+  protected long frameBudgetNanos = 4000000L;
+  protected boolean skipAnimation = false;
+  protected long revealStartNanos = 0;
+  // measured cost of one point in a reveal frame, bounds the points per frame to the budget
+  protected long nanosPerPoint = 0;
+
+  // chart bitmap area rasterized by the current step, only that much of a software rendered view
+  // is invalidated (hardware accelerated views ignore dirty rects and redraw whole)
+  private float dirtyLeft, dirtyTop, dirtyRight, dirtyBottom;
+  protected float maxStrokeWidth = 0;
+  // the animation stopped until onDraw draws the published frame, see drawChart()
+  private boolean awaitingDraw = false;
+  private static final long UNDRAWN_CHECK_MS = 100;
+
+  private final FrameScheduler.Client frameClient = new FrameScheduler.Client() {
+    @Override
+    public void onFrame(long frameTimeNanos) {
+      doAnimationFrame(frameTimeNanos);
+    }
+  };
+
+  private final Runnable scheduleFrameRunnable = new Runnable() {
+    @Override
+    public void run() {
+      scheduleFrame();
+    }
+  };
+
+  private final Runnable undrawnRunnable = new Runnable() {
+    @Override
+    public void run() {
+      if (awaitingDraw && renderer != null && renderer.isWaitingForDraw()) {
+        // the dirty rect may have been clipped away, e.g. by a scrolling parent
+        invalidate();
+      }
+    }
+  };
 
   protected int padding;
   protected int axisTextPadding;
@@ -148,6 +289,10 @@ public class ExpandingLineChart extends View {
   protected LabelFormatterCallback xLabelFormatterCallback = null;
   protected LabelFormatterCallback yLabelFormatterCallback = null;
 
+  private static final int LABEL_CACHE_SIZE = 512;
+  protected LabelCache xLabelCache;
+  protected LabelCache yLabelCache;
+
   protected int xType = TYPE_NUMBER;
   protected int yType = TYPE_NUMBER;
   protected String xFormat = "";
@@ -159,6 +304,7 @@ public class ExpandingLineChart extends View {
 
   public ExpandingLineChart(Context context, @Nullable AttributeSet attrs) {
     super(context, attrs);
+    BitmapPool.register(context);
 
     float scaledDensity = context.getResources().getDisplayMetrics().scaledDensity;
     float density = context.getResources().getDisplayMetrics().density;
@@ -178,6 +324,9 @@ public class ExpandingLineChart extends View {
     axisPaint = new Paint();
     axisPaint.setStrokeWidth((int) (1 * density));
 
+    xLabelCache = new LabelCache(LABEL_CACHE_SIZE);
+    yLabelCache = new LabelCache(LABEL_CACHE_SIZE);
+
     padding = (int) (3 * density);
     axisTextPadding = padding;
 
@@ -186,16 +335,37 @@ public class ExpandingLineChart extends View {
   }
 
   public void setParams(Params params) {
-    interval = 1000 / params.fps;
+    frameIntervalNanos = 1000000000L / params.fps;
     this.drawCountPerFrame = params.drawCountPerFrame;
+    this.revealDurationNanos = params.revealDurationMs * 1000000L;
+    this.frameBudgetNanos = (long) (params.frameBudgetMs * 1000000L);
+    this.skipAnimation = params.skipAnimation;
+    this.xWindow = params.xWindow;
+    this.decimation = params.decimation;
+    this.decimationTarget = params.decimationTarget;
+    this.lineMode = params.lineMode;
+    boolean recreate = renderInBackground != params.renderInBackground;
+    this.renderInBackground = params.renderInBackground;
+    this.viewportGestures = params.viewportGestures;
+    if (params.bitmapConfig != bitmapConfig || params.chartBackground != chartBackground) {
+      setBitmapConfigIntern(params.bitmapConfig, params.chartBackground);
+      recreate = true;
+    }
 
     if (params.legend != null) {
-      setDataIntern(params.legend, params.datasets, params.colors);
+      if (params.series != null) {
+        setDataIntern(params.legend, params.series, params.colors);
+      } else {
+        setDataIntern(params.legend, toSeriesData(params.datasets), params.colors);
+      }
+    } else if (recreate) {
+      recreateChartBmp(getMeasuredWidth(), getMeasuredHeight());
     }
 
     Log.d(TAG, "setParams xTicks " + params.xTicks + " yTicks " + params.yTicks);
 
     if (params.xTicks != null) {
+      xRangeSet = false;
       setXTicksIntern(params.xTicks);
     }
 
@@ -227,7 +397,7 @@ public class ExpandingLineChart extends View {
     }
 
     Log.d(TAG, "setParams finished, postInvalidate, running: " + running);
-    postInvalidate();
+    invalidateChrome();
 
     xAlreadyDrawn = 0;
     clearBmp = true;
@@ -238,17 +408,59 @@ public class ExpandingLineChart extends View {
   }
 
   public void setFps(int fps) {
-    interval = 1000 / fps;
+    frameIntervalNanos = 1000000000L / fps;
   }
 
   public void setDrawCountPerFrame(int drawCountPerFrame) {
     this.drawCountPerFrame = drawCountPerFrame;
   }
 
-  public void setData(ArrayList<String> legend, ArrayList<ArrayList<PointD>> datasets, ArrayList<String> colors) {
-    setDataIntern(legend, datasets, colors);
+  /**
+   * Reveals the series over {@code durationMs} whatever their size, instead of
+   * drawCountPerFrame points per frame. How many points a frame draws follows the real frame
+   * time, within {@code frameBudgetMs} of rasterizing per frame; if the device cannot keep up the
+   * reveal takes longer rather than dropping frames. 0 goes back to drawCountPerFrame.
+   */
+  public void setRevealDuration(long durationMs, float frameBudgetMs) {
+    revealDurationNanos = durationMs * 1000000L;
+    frameBudgetNanos = (long) (frameBudgetMs * 1000000L);
+  }
 
-    postInvalidate();
+  /**
+   * Draws the final state in one pass instead of expanding, e.g. for charts in recycled lists.
+   */
+  public void setSkipAnimation(boolean skipAnimation) {
+    this.skipAnimation = skipAnimation;
+  }
+
+  /**
+   * {@link #LINE_SEGMENTS} draws every step with {@link Canvas#drawLines}, which needs each
+   * point twice, as the end of a segment and the start of the next, and joins nothing.
+   * {@link #LINE_STRIP} draws the points of a step once, as a polyline with round joins and caps
+   * starting at the last point of the previous step, the caps join the steps. A step of n new
+   * points sends n + 1 points instead of 2n: the same at one point per step, close to half with
+   * larger steps or in the all at once pass. Takes effect from the next step.
+   */
+  public void setLineMode(int lineMode) {
+    this.lineMode = lineMode;
+  }
+
+  /**
+   * Sets how series are reduced before they are drawn. {@link #DECIMATION_MINMAX} keeps the
+   * first, min, max and last point of every pixel column, which looks the same as drawing every
+   * point but keeps the number of segments bounded by the chart width.
+   */
+  public void setDecimation(int decimation) {
+    setDecimation(decimation, decimationTarget);
+  }
+
+  /**
+   * Same as {@link #setDecimation(int)}, {@code target} is the number of points per series kept
+   * by {@link #DECIMATION_LTTB} (0 uses the chart width).
+   */
+  public void setDecimation(int decimation, int target) {
+    this.decimation = decimation;
+    this.decimationTarget = target;
 
     xAlreadyDrawn = 0;
     clearBmp = true;
@@ -258,102 +470,920 @@ public class ExpandingLineChart extends View {
     }
   }
 
-  private void setDataIntern(ArrayList<String> legend, ArrayList<ArrayList<PointD>> datasets, ArrayList<String> colors) {
-    Log.d(TAG, "setDataIntern");
-    yMax = Float.MIN_VALUE;
-    yMin = Float.MAX_VALUE;
-    xMax = Float.MIN_VALUE;
-    xMin = Float.MAX_VALUE;
+  /**
+   * Moves rasterization of the expanding animation to a background thread. The chart then keeps
+   * two bitmaps and onDraw only blits the last finished one.
+   */
+  public void setRenderInBackground(boolean renderInBackground) {
+    if (this.renderInBackground == renderInBackground) {
+      return;
+    }
+    this.renderInBackground = renderInBackground;
+    recreateChartBmp(getMeasuredWidth(), getMeasuredHeight());
+
+    xAlreadyDrawn = 0;
+    clearBmp = true;
+    if (!running) {
+      running = true;
+      drawChart(bmpCanvas);
+    }
+  }
 
-    legendList = legend;
-    datasetList = datasets;
+  /**
+   * Shows only x values between {@code from} and {@code to}. Each series is cut to that range by
+   * binary search, so the cost of a redraw follows what is visible rather than the data size.
+   * A NaN bound fits the data on that side. Ignored in window mode.
+   */
+  public void setXRange(double from, double to) {
+    Ticks ticks = copyTicks(xTicks);
+    if (!xRangeSet) {
+      savedOverrideMin = ticks.overrideValueMin;
+      savedOverrideMax = ticks.overrideValueMax;
+      savedValueMin = ticks.valueMin;
+      savedValueMax = ticks.valueMax;
+    }
+    ticks.overrideValueMin = !Double.isNaN(from);
+    ticks.overrideValueMax = !Double.isNaN(to);
+    if (ticks.overrideValueMin) {
+      ticks.valueMin = from;
+    }
+    if (ticks.overrideValueMax) {
+      ticks.valueMax = to;
+    }
+    xRangeSet = true;
+    updateXTicks(ticks);
+  }
 
-    Comparator<PointD> comparator = new Comparator<PointD>() {
-      @Override
-      public int compare(PointD o1, PointD o2) {
-        return Double.compare(o1.x, o2.x);
+  /**
+   * Goes back to the x range in place before {@link #setXRange(double, double)}: the whole data
+   * range, or the bounds set through the x ticks overrides.
+   */
+  public void resetXRange() {
+    if (!xRangeSet) {
+      return;
+    }
+    Ticks ticks = copyTicks(xTicks);
+    ticks.overrideValueMin = savedOverrideMin;
+    ticks.overrideValueMax = savedOverrideMax;
+    ticks.valueMin = savedValueMin;
+    ticks.valueMax = savedValueMax;
+    xRangeSet = false;
+    updateXTicks(ticks);
+  }
+
+  /**
+   * Pixel format of the bitmaps the series are drawn into. {@link Bitmap.Config#ARGB_8888} (the
+   * default) is transparent. {@link Bitmap.Config#RGB_565} takes half the memory, for charts on
+   * an opaque background: the bitmap is filled with {@code background} and grid and value labels
+   * are then drawn over the series instead of under them.
+   */
+  public void setBitmapConfig(Bitmap.Config config, int background) {
+    if (config == bitmapConfig && background == chartBackground) {
+      return;
+    }
+    setBitmapConfigIntern(config, background);
+    recreateChartBmp(getMeasuredWidth(), getMeasuredHeight());
+
+    xAlreadyDrawn = 0;
+    clearBmp = true;
+    if (!running) {
+      running = true;
+      drawChart(bmpCanvas);
+    }
+  }
+
+  private void setBitmapConfigIntern(Bitmap.Config config, int background) {
+    if (config != Bitmap.Config.ARGB_8888 && config != Bitmap.Config.RGB_565) {
+      throw new IllegalArgumentException("unsupported bitmap config " + config);
+    }
+    bitmapConfig = config;
+    chartBackground = background;
+  }
+
+  private boolean isChartOpaque() {
+    return bitmapConfig == Bitmap.Config.RGB_565;
+  }
+
+  private void clearChartCanvas(Canvas canvas) {
+    if (isChartOpaque()) {
+      canvas.drawColor(chartBackground);
+    } else {
+      canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+    }
+  }
+
+  public void setViewportGesturesEnabled(boolean enabled) {
+    viewportGestures = enabled;
+  }
+
+  /**
+   * Switches to a sliding window showing the last {@code xWindow} units of x, 0 goes back to
+   * showing the whole data range. In window mode points that scroll out are evicted, new points
+   * are drawn as soon as they are appended and the bitmap is shifted instead of redrawn.
+   */
+  public void setXWindow(double xWindow) {
+    boolean recreate = renderInBackground && (this.xWindow > 0) != (xWindow > 0);
+    this.xWindow = xWindow;
+
+    if (xWindow > 0) {
+      windowEnd = xMax;
+      updateWindowTicks();
+      evictOutsideWindow();
+    } else {
+      calcTicks(xTicks, xMin, xMax);
+    }
+
+    if (recreate) {
+      recreateChartBmp(getMeasuredWidth(), getMeasuredHeight());
+    }
+
+    invalidateChrome();
+
+    xAlreadyDrawn = 0;
+    clearBmp = true;
+    if (!running) {
+      running = true;
+      drawChart(bmpCanvas);
+    }
+  }
+
+  public void setData(ArrayList<String> legend, ArrayList<ArrayList<PointD>> datasets, ArrayList<String> colors) {
+    setData(legend, toSeriesData(datasets), colors);
+  }
+
+  /**
+   * Same as {@link #setData(ArrayList, ArrayList, ArrayList)} but takes columnar series. The
+   * chart keeps (and sorts in place) the given {@link SeriesData} instances, no copy is made. Any
+   * other {@link SeriesSource} is read in place too, it must already be sorted by x. As reading
+   * those may mean going through a file, they are prepared off the main thread the way
+   * {@link #setDataAsync} does and the previous data stays until then.
+   */
+  public void setData(ArrayList<String> legend, List<? extends SeriesSource> series, ArrayList<String> colors) {
+    for (int i = 0; i < series.size(); i++) {
+      if (!(series.get(i) instanceof SeriesData)) {
+        setDataAsync(legend, series, colors);
+        return;
       }
-    };
+    }
+    setDataIntern(legend, series, colors);
 
-    for (int i = 0; i < legend.size(); i++) {
-//            Log.d(TAG, "setDataIntern dataset " + i + " " + legend.get(i));
-      ArrayList<PointD> dataset = datasets.get(i);
-      for (int j = 0; j < dataset.size(); j++) {
-        PointD p = dataset.get(j);
-        if (p.x < xMin) {
-          xMin = p.x;
-        }
-        if (p.x > xMax) {
-          xMax = p.x;
-        }
-        if (p.y < yMin) {
-          yMin = p.y;
-        }
-        if (p.y > yMax) {
-          yMax = p.y;
+    invalidateChrome();
+
+    xAlreadyDrawn = 0;
+    clearBmp = true;
+    if (!running) {
+      running = true;
+      drawChart(bmpCanvas);
+    }
+  }
+
+  private static ArrayList<SeriesData> toSeriesData(ArrayList<ArrayList<PointD>> datasets) {
+    ArrayList<SeriesData> series = new ArrayList<>(datasets.size());
+    for (int i = 0; i < datasets.size(); i++) {
+      series.add(SeriesData.fromPoints(datasets.get(i)));
+    }
+    return series;
+  }
+
+  /**
+   * Series with their bounds and paints, ready to be swapped in by applyData(). setDataAsync
+   * also lays them out: ticks, chart bitmap area and decimation for {@link #layout}.
+   */
+  private static class PreparedData {
+    ArrayList<String> legend;
+    ArrayList<SeriesSource> series;
+    ArrayList<Paint> paints;
+    ArrayList<Paint> stripPaints;
+    float maxStrokeWidth = 0;
+    ArrayList<Decimator> decimators;
+    double yMax = Float.MIN_VALUE;
+    double yMin = Float.MAX_VALUE;
+    double xMax = Float.MIN_VALUE;
+    double xMin = Float.MAX_VALUE;
+
+    LayoutSnapshot layout = null;
+    Ticks xTicks;
+    Ticks yTicks;
+    int chartLeft;
+    int chartWidth;
+    int chartHeight;
+
+    PreparedData(ArrayList<String> legend, List<? extends SeriesSource> series) {
+      this.legend = legend;
+      this.series = new ArrayList<>(series);
+      decimators = new ArrayList<>(series.size());
+      for (int i = 0; i < series.size(); i++) {
+        decimators.add(new Decimator());
+      }
+    }
+
+    PreparedData(List<? extends SeriesSource> series) {
+      this.series = new ArrayList<>(series);
+    }
+
+    void setPaints(ArrayList<Paint> paints) {
+      this.paints = paints;
+      stripPaints = createStripPaints(paints);
+      for (Paint p : paints) {
+        if (p != null && p.getStrokeWidth() > maxStrokeWidth) {
+          maxStrokeWidth = p.getStrokeWidth();
         }
       }
-//            Log.d(TAG, i + " sorting");
-      Collections.sort(dataset, comparator);
     }
-    float density = getContext().getResources().getDisplayMetrics().density;
 
-    paintList.clear();
+    void addBounds(SeriesSource dataset) {
+      if (dataset.size() == 0) {
+        return;
+      }
+      if (dataset.getMinX() < xMin) {
+        xMin = dataset.getMinX();
+      }
+      if (dataset.getMaxX() > xMax) {
+        xMax = dataset.getMaxX();
+      }
+      if (dataset.getMinY() < yMin) {
+        yMin = dataset.getMinY();
+      }
+      if (dataset.getMaxY() > yMax) {
+        yMax = dataset.getMaxY();
+      }
+    }
+  }
+
+  private static ArrayList<Paint> createPaints(ArrayList<String> colors, float density) {
+    ArrayList<Paint> paints = new ArrayList<>(colors.size());
     for (String colStr : colors) {
       if (colStr == null) {
-        paintList.add(null);
+        paints.add(null);
         continue;
       }
       Paint p = new Paint();
       p.setStrokeWidth(2 * density);
       p.setColor(Color.parseColor(colStr));
       p.setAntiAlias(true);
-      paintList.add(p);
+      paints.add(p);
+    }
+    return paints;
+  }
+
+  private static ArrayList<Paint> createStripPaints(ArrayList<Paint> paints) {
+    ArrayList<Paint> stripPaints = new ArrayList<>(paints.size());
+    for (Paint p : paints) {
+      if (p == null) {
+        stripPaints.add(null);
+        continue;
+      }
+      Paint sp = new Paint(p);
+      sp.setStyle(Paint.Style.STROKE);
+      sp.setStrokeJoin(Paint.Join.ROUND);
+      sp.setStrokeCap(Paint.Cap.ROUND);
+      stripPaints.add(sp);
+    }
+    return stripPaints;
+  }
+
+  private void setDataIntern(ArrayList<String> legend, List<? extends SeriesSource> series, ArrayList<String> colors) {
+    Log.d(TAG, "setDataIntern");
+    // supersedes any setDataAsync still being prepared
+    asyncGeneration++;
+
+    PreparedData data = new PreparedData(legend, series);
+    for (int i = 0; i < legend.size(); i++) {
+//            Log.d(TAG, "setDataIntern dataset " + i + " " + legend.get(i));
+      SeriesSource dataset = series.get(i);
+//            Log.d(TAG, i + " sorting");
+      // sorts only if needed, and computes the bounds in the same pass
+      dataset.prepare();
+      data.addBounds(dataset);
+    }
+    float density = getContext().getResources().getDisplayMetrics().density;
+    data.setPaints(createPaints(colors, density));
+
+    applyData(data);
+
+    Log.d(TAG, "setDataIntern finished");
+  }
+
+  private void applyData(PreparedData data) {
+    yMax = data.yMax;
+    yMin = data.yMin;
+    xMax = data.xMax;
+    xMin = data.xMin;
+
+    legendList = data.legend;
+    seriesList = data.series;
+    // replaceSeriesAsync results still pending were meant for the previous series
+    asyncGeneration++;
+    replaceGeneration = new int[data.series.size()];
+    valueLabelLayout.invalidate();
+    invalidateLabels();
+    renderList = new ArrayList<>(data.series);
+    decimators = data.decimators;
+    lateFrom = new int[data.series.size()];
+    for (int i = 0; i < lateFrom.length; i++) {
+      lateFrom[i] = -1;
+    }
+    paintList = data.paints;
+    stripPaintList = data.stripPaints;
+    maxStrokeWidth = data.maxStrokeWidth;
+
+    if (data.layout != null) {
+      // laid out by setDataAsync for the current size and ticks settings
+      copyTickValues(data.yTicks, yTicks);
+      copyTickValues(data.xTicks, xTicks);
+    } else {
+      calcTicks(yTicks, yMin, yMax);
+      calcTicks(xTicks, xMin, xMax);
+    }
+
+    if (xWindow > 0) {
+      windowEnd = xMax;
+      updateWindowTicks();
+      evictOutsideWindow();
+    }
+
+    if (data.layout == null || xWindow > 0 || chartBmp == null || chartBmpX != data.chartLeft ||
+        chartBmp.getWidth() != data.chartWidth || chartBmp.getHeight() != data.chartHeight) {
+      recreateChartBmp(getMeasuredWidth(), getMeasuredHeight());
+    }
+  }
+
+  /**
+   * Replaces one series keeping the others, their decimation and their paints. The chart is
+   * redrawn from the start. A source other than {@link SeriesData} is prepared off the main
+   * thread like with {@link #replaceSeriesAsync}.
+   */
+  public void replaceSeries(int seriesIndex, SeriesSource series) {
+    if (!(series instanceof SeriesData)) {
+      replaceSeriesAsync(seriesIndex, series);
+      return;
+    }
+    replaceGeneration[seriesIndex]++;
+    series.prepare();
+    applySeries(seriesIndex, series, new Decimator());
+  }
+
+  /**
+   * Like {@link #replaceSeries}, but sorting, bounds and the min/max level of detail of the new
+   * series are computed on the prepare pool. The main thread only swaps it in. A later
+   * replaceSeries of the same series, or any setData, wins over one still being prepared.
+   */
+  public void replaceSeriesAsync(final int seriesIndex, final SeriesSource series) {
+    final int generation = asyncGeneration;
+    final int seriesGeneration = ++replaceGeneration[seriesIndex];
+    final boolean minMax = decimation == DECIMATION_MINMAX && xWindow <= 0;
+
+    getPreparePool().execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          series.prepare();
+          final Decimator decimator = new Decimator();
+          if (minMax) {
+            decimator.prime(series);
+          }
+          post(new Runnable() {
+            @Override
+            public void run() {
+              if (generation == asyncGeneration && seriesGeneration == replaceGeneration[seriesIndex]) {
+                applySeries(seriesIndex, series, decimator);
+              }
+            }
+          });
+        } catch (Exception e) {
+          Log.e(TAG, "replaceSeriesAsync failed", e);
+        }
+      }
+    });
+  }
+
+  private void applySeries(int seriesIndex, SeriesSource series, Decimator decimator) {
+    seriesList.set(seriesIndex, series);
+    renderList.set(seriesIndex, series);
+    // same list, and the new series may have the old one's version
+    valueLabelLayout.invalidate();
+    decimators.set(seriesIndex, decimator);
+    lateFrom[seriesIndex] = -1;
+
+    PreparedData bounds = new PreparedData(seriesList);
+    for (int i = 0; i < seriesList.size(); i++) {
+      bounds.addBounds(seriesList.get(i));
     }
+    yMax = bounds.yMax;
+    yMin = bounds.yMin;
+    xMax = bounds.xMax;
+    xMin = bounds.xMin;
 
+    double yValueMin = yTicks.valueMin, yValueMax = yTicks.valueMax;
     calcTicks(yTicks, yMin, yMax);
+    if (yValueMin != yTicks.valueMin || yValueMax != yTicks.valueMax) {
+      recreateChartBmp(getMeasuredWidth(), getMeasuredHeight());
+    }
+
+    invalidateChrome();
+    clearBmp = true;
+
+    if (xWindow > 0) {
+      windowEnd = xMax;
+      updateWindowTicks();
+      evictOutsideWindow();
+      drawWindow(bmpCanvas);
+      return;
+    }
+
     calcTicks(xTicks, xMin, xMax);
+    xAlreadyDrawn = 0;
+    if (!running) {
+      running = true;
+      drawChart(bmpCanvas);
+    }
+  }
 
-    recreateChartBmp(getMeasuredWidth(), getMeasuredHeight());
+  /**
+   * Like {@link #setData(ArrayList, ArrayList, ArrayList)}, but converting, sorting, bounds,
+   * ticks, chart layout and decimation of the series run in parallel on a small worker pool. The
+   * main thread only swaps the result in, once the view is laid out. A later setData or
+   * setDataAsync call wins over one that is still being prepared.
+   */
+  public void setDataAsync(final ArrayList<String> legend, final ArrayList<ArrayList<PointD>> datasets, final ArrayList<String> colors) {
+    prepareDataAsync(legend, datasets, null, colors);
+  }
+
+  /**
+   * Same as {@link #setDataAsync(ArrayList, ArrayList, ArrayList)} for columnar series.
+   */
+  public void setDataAsync(final ArrayList<String> legend, final List<? extends SeriesSource> series, final ArrayList<String> colors) {
+    prepareDataAsync(legend, null, series, colors);
+  }
+
+  private static ExecutorService preparePool = null;
+  private static ExecutorService prepareCoordinator = null;
+
+  private static synchronized ExecutorService getPreparePool() {
+    if (preparePool == null) {
+      int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+      preparePool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "ExpandingLineChartPrepare");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+      prepareCoordinator = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "ExpandingLineChartPrepareMain");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+    return preparePool;
+  }
+
+  private void prepareDataAsync(final ArrayList<String> legend, final ArrayList<ArrayList<PointD>> datasets,
+                                final List<? extends SeriesSource> series, final ArrayList<String> colors) {
+    final int generation = ++asyncGeneration;
+    final float density = getContext().getResources().getDisplayMetrics().density;
+    final LayoutSnapshot snapshot = snapshotLayout();
+    final ExecutorService pool = getPreparePool();
+
+    prepareCoordinator.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          int count = legend.size();
+          final SeriesSource[] prepared = new SeriesSource[count];
+          ArrayList<Callable<Void>> tasks = new ArrayList<>(count);
+          for (int i = 0; i < count; i++) {
+            final int idx = i;
+            tasks.add(new Callable<Void>() {
+              @Override
+              public Void call() {
+                SeriesSource dataset = series != null ? series.get(idx) : SeriesData.fromPoints(datasets.get(idx));
+                dataset.prepare();
+                prepared[idx] = dataset;
+                return null;
+              }
+            });
+          }
+          waitAll(pool.invokeAll(tasks));
+
+          final PreparedData data = new PreparedData(legend, Arrays.asList(prepared));
+          for (int i = 0; i < count; i++) {
+            data.addBounds(prepared[i]);
+          }
+          data.setPaints(createPaints(colors, density));
+          layoutPrepared(data, snapshot, pool);
+
+          post(new Runnable() {
+            @Override
+            public void run() {
+              finishPreparedData(data, generation);
+            }
+          });
+        } catch (Exception e) {
+          Log.e(TAG, "setDataAsync failed", e);
+        }
+      }
+    });
+  }
+
+  /**
+   * What laying out the chart depends on, copied on the main thread for setDataAsync.
+   */
+  private static class LayoutSnapshot {
+    int viewWidth;
+    int viewHeight;
+    Ticks xTicks;
+    Ticks yTicks;
+    Paint xLabelPaint;
+    Paint yLabelPaint;
+    int padding;
+    int axisTextPadding;
+    int decimation;
+    int decimationTarget;
+  }
+
+  private LayoutSnapshot snapshotLayout() {
+    LayoutSnapshot snapshot = new LayoutSnapshot();
+    snapshot.viewWidth = getMeasuredWidth();
+    snapshot.viewHeight = getMeasuredHeight();
+    snapshot.xTicks = copyTicks(xTicks);
+    snapshot.yTicks = copyTicks(yTicks);
+    snapshot.xLabelPaint = new Paint(xAxisTextPaint);
+    snapshot.yLabelPaint = new Paint(yAxisTextPaint);
+    snapshot.padding = padding;
+    snapshot.axisTextPadding = axisTextPadding;
+    snapshot.decimation = xWindow > 0 ? DECIMATION_NONE : decimation;
+    snapshot.decimationTarget = decimationTarget;
+    return snapshot;
+  }
+
+  /**
+   * True if {@code snapshot} still describes the chart, so data laid out for it can be applied
+   * as is.
+   */
+  private boolean isLayoutCurrent(LayoutSnapshot snapshot) {
+    return snapshot.viewWidth == getMeasuredWidth() && snapshot.viewHeight == getMeasuredHeight() &&
+      sameTicksSettings(snapshot.xTicks, xTicks) && sameTicksSettings(snapshot.yTicks, yTicks) &&
+      snapshot.decimation == (xWindow > 0 ? DECIMATION_NONE : decimation) &&
+      snapshot.decimationTarget == decimationTarget;
+  }
+
+  /**
+   * Computes the ticks and the chart bitmap area of prepared data, and primes its decimators
+   * for that area, the same way applyData() and drawChart() would on the main thread. Runs on
+   * the prepare coordinator.
+   */
+  private static void layoutPrepared(final PreparedData data, LayoutSnapshot snapshot,
+                                     ExecutorService pool) throws Exception {
+    data.layout = snapshot;
+    data.xTicks = copyTicks(snapshot.xTicks);
+    data.yTicks = copyTicks(snapshot.yTicks);
+    calcTicks(data.yTicks, data.yMin, data.yMax);
+    calcTicks(data.xTicks, data.xMin, data.xMax);
+    data.chartLeft = chartLeft(snapshot.xLabelPaint, data.yTicks.valueMax, snapshot.padding,
+      snapshot.axisTextPadding);
+    data.chartWidth = snapshot.viewWidth - data.chartLeft - snapshot.padding;
+    data.chartHeight = snapshot.viewHeight - snapshot.padding -
+      chartBottom(snapshot.yLabelPaint, snapshot.padding, snapshot.axisTextPadding);
+
+    final int decimation = snapshot.decimation, decimationTarget = snapshot.decimationTarget;
+    final int width = data.chartWidth;
+    if (decimation == DECIMATION_NONE || width <= 0 || data.chartHeight <= 0) {
+      return;
+    }
+    ArrayList<Callable<Void>> tasks = new ArrayList<>(data.series.size());
+    for (int i = 0; i < data.series.size(); i++) {
+      final int idx = i;
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          data.decimators.get(idx).get(data.series.get(idx), decimation, width, decimationTarget,
+            data.xTicks.valueMin, data.xTicks.valueMax);
+          return null;
+        }
+      });
+    }
+    waitAll(pool.invokeAll(tasks));
+  }
+
+  /**
+   * Swaps in data prepared by setDataAsync if it was laid out for the chart as it is now.
+   * Otherwise (not laid out yet, resized, ticks or decimation changed meanwhile) it is laid out
+   * again off the main thread first.
+   */
+  private void finishPreparedData(final PreparedData data, final int generation) {
+    if (generation != asyncGeneration) {
+      return;
+    }
+    if (getMeasuredWidth() == 0 || getMeasuredHeight() == 0) {
+      addOnLayoutChangeListener(new OnLayoutChangeListener() {
+        @Override
+        public void onLayoutChange(View v, int left, int top, int right, int bottom,
+                                   int oldLeft, int oldTop, int oldRight, int oldBottom) {
+          removeOnLayoutChangeListener(this);
+          finishPreparedData(data, generation);
+        }
+      });
+      return;
+    }
+    if (!isLayoutCurrent(data.layout)) {
+      final LayoutSnapshot snapshot = snapshotLayout();
+      final ExecutorService pool = getPreparePool();
+      prepareCoordinator.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            layoutPrepared(data, snapshot, pool);
+            post(new Runnable() {
+              @Override
+              public void run() {
+                finishPreparedData(data, generation);
+              }
+            });
+          } catch (Exception e) {
+            Log.e(TAG, "setDataAsync failed", e);
+          }
+        }
+      });
+      return;
+    }
+
+    applyData(data);
+
+    invalidateChrome();
+
+    xAlreadyDrawn = 0;
+    clearBmp = true;
+    if (!running) {
+      running = true;
+      drawChart(bmpCanvas);
+    }
+  }
+
+  private static void waitAll(List<Future<Void>> futures) throws Exception {
+    for (Future<Void> f : futures) {
+      f.get();
+    }
+  }
+
+  private static boolean sameTicksSettings(Ticks a, Ticks b) {
+    synchronized (b) {
+      return a.enabled == b.enabled && a.interval == b.interval && a.countMax == b.countMax &&
+        a.overrideValueMin == b.overrideValueMin && a.overrideValueMax == b.overrideValueMax &&
+        (!a.overrideValueMin || a.valueMin == b.valueMin) &&
+        (!a.overrideValueMax || a.valueMax == b.valueMax);
+    }
+  }
+
+  /**
+   * Copies what calcTicks computed from {@code from} to {@code to}.
+   */
+  private static void copyTickValues(Ticks from, Ticks to) {
+    synchronized (to) {
+      to.appliedInterval = from.appliedInterval;
+      to.valueMin = from.valueMin;
+      to.valueMax = from.valueMax;
+    }
+  }
+
+  private static Ticks copyTicks(Ticks ticks) {
+    Ticks copy = new Ticks();
+    synchronized (ticks) {
+      copy.enabled = ticks.enabled;
+      copy.interval = ticks.interval;
+      copy.countMax = ticks.countMax;
+      copy.appliedInterval = ticks.appliedInterval;
+      copy.overrideValueMin = ticks.overrideValueMin;
+      copy.overrideValueMax = ticks.overrideValueMax;
+      copy.valueMin = ticks.valueMin;
+      copy.valueMax = ticks.valueMax;
+    }
+    return copy;
+  }
+
+  /**
+   * Appends points to an existing series without restarting the expanding animation. Bounds are
+   * updated from the new points only; the chart is redrawn from scratch only when the new points
+   * change the ticks range or are not in x order. Must be called on the main thread.
+   */
+  public void appendPoints(int seriesIndex, double[] xs, double[] ys) {
+    if (xs.length != ys.length) {
+      throw new IllegalArgumentException("xs and ys length differ " + xs.length + " " + ys.length);
+    }
+    if (xs.length == 0) {
+      return;
+    }
+
+    if (!(seriesList.get(seriesIndex) instanceof SeriesData)) {
+      throw new IllegalArgumentException("series " + seriesIndex + " is not a SeriesData, it cannot be appended to");
+    }
+    SeriesData series = (SeriesData) seriesList.get(seriesIndex);
+    int oldSize = series.size();
+    boolean inOrder = oldSize == 0 || xs[0] >= series.getX(oldSize - 1);
+
+    for (int j = 0; j < xs.length; j++) {
+      double x = xs[j], y = ys[j];
+      if (j > 0 && x < xs[j - 1]) {
+        inOrder = false;
+      }
+      if (x < xMin) {
+        xMin = x;
+      }
+      if (x > xMax) {
+        xMax = x;
+      }
+      if (y < yMin) {
+        yMin = y;
+      }
+      if (y > yMax) {
+        yMax = y;
+      }
+    }
+    series.addAll(xs, ys, 0, xs.length);
+
+    boolean redraw = false;
+    if (!inOrder) {
+      series.sortByX();
+      redraw = true;
+    } else if (xWindow <= 0) {
+      decimators.get(seriesIndex).appended(series);
+    }
+
+    double yValueMin = yTicks.valueMin, yValueMax = yTicks.valueMax, yInterval = yTicks.appliedInterval;
+    double xValueMin = xTicks.valueMin, xValueMax = xTicks.valueMax, xInterval = xTicks.appliedInterval;
+    calcTicks(yTicks, yMin, yMax);
+    boolean yChanged = yValueMin != yTicks.valueMin || yValueMax != yTicks.valueMax ||
+      yInterval != yTicks.appliedInterval;
+
+    if (yChanged) {
+      // y axis label width may have changed, so may the chart area
+      recreateChartBmp(getMeasuredWidth(), getMeasuredHeight());
+    }
+
+    // value labels follow the data, ticks only their range
+    boolean labelsChanged = xValueLabelEnabled || yValueLabelEnabled;
+
+    if (xWindow > 0) {
+      if (redraw || yChanged) {
+        clearBmp = true;
+      }
+      scrollWindow();
+      drawWindow(bmpCanvas);
+      if (yChanged || labelsChanged || xValueMin != xTicks.valueMin ||
+          xValueMax != xTicks.valueMax || xInterval != xTicks.appliedInterval) {
+        invalidateChrome();
+      }
+      return;
+    }
+
+    calcTicks(xTicks, xMin, xMax);
+    boolean xChanged = xValueMin != xTicks.valueMin || xValueMax != xTicks.valueMax ||
+      xInterval != xTicks.appliedInterval;
+
+    if (redraw || xChanged || yChanged) {
+      xAlreadyDrawn = 0;
+      clearBmp = true;
+    } else if (!clearBmp) {
+      int changedFrom = oldSize;
+      if (renderList.get(seriesIndex) != series) {
+        changedFrom = decimators.get(seriesIndex).append(series);
+      }
+      if (changedFrom < 0) {
+        xAlreadyDrawn = 0;
+        clearBmp = true;
+      } else if (changedFrom < xAlreadyDrawn) {
+        // the animation front is already past the old end of this series, draw the part behind
+        // it, from the point it continues (none if the series was empty)
+        int lateStart = Math.max(changedFrom - 1, 0);
+        if (renderer != null) {
+          // the bitmaps belong to the render thread, send it along with the next batch
+          lateFrom[seriesIndex] = lateFrom[seriesIndex] < 0 ? lateStart :
+            Math.min(lateFrom[seriesIndex], lateStart);
+        } else if (bmpCanvas != null) {
+          drawSeriesRange(bmpCanvas, null, seriesIndex, lateStart,
+            Math.min(renderList.get(seriesIndex).size(), xAlreadyDrawn));
+          invalidate();
+        }
+      }
+    }
+
+    if (xChanged || yChanged || labelsChanged) {
+      invalidateChrome();
+    }
 
-    Log.d(TAG, "setDataIntern finished");
+    if (!running) {
+      running = true;
+      drawChart(bmpCanvas);
+    }
   }
 
   public void setXTicks(Ticks xTicks) {
+    xRangeSet = false;
+    updateXTicks(xTicks);
+  }
+
+  private void updateXTicks(Ticks xTicks) {
+    double valueMin = this.xTicks.valueMin, valueMax = this.xTicks.valueMax;
     setXTicksIntern(xTicks);
 
-    postInvalidate();
+    invalidateChrome();
+
+    if (valueMin != xTicks.valueMin || valueMax != xTicks.valueMax) {
+      // the series were drawn for the old range
+      xAlreadyDrawn = 0;
+      clearBmp = true;
+      if (!running) {
+        running = true;
+        drawChart(bmpCanvas);
+      }
+    }
   }
 
   private void setXTicksIntern(Ticks xTicks) {
     this.xTicks = xTicks;
+    xLabelCache.clear();
 
-    calcTicks(xTicks, xMin, xMax);
+    if (xWindow > 0) {
+      updateWindowTicks();
+    } else {
+      calcTicks(xTicks, xMin, xMax);
+    }
   }
 
   public void setYTicks(Ticks yTicks) {
+    double valueMin = this.yTicks.valueMin, valueMax = this.yTicks.valueMax;
     setYTicksIntern(yTicks);
 
-    postInvalidate();
+    invalidateChrome();
+
+    if (valueMin != yTicks.valueMin || valueMax != yTicks.valueMax) {
+      // y axis label width may have changed too
+      recreateChartBmp(getMeasuredWidth(), getMeasuredHeight());
+      xAlreadyDrawn = 0;
+      clearBmp = true;
+      if (!running) {
+        running = true;
+        drawChart(bmpCanvas);
+      }
+    }
   }
 
   private void setYTicksIntern(Ticks yTicks) {
     this.yTicks = yTicks;
+    yLabelCache.clear();
 
     calcTicks(yTicks, yMin, yMax);
   }
 
+  /**
+   * Drops the cached formatted labels, for formatters whose output for a value can change.
+   */
+  public void invalidateLabels() {
+    xLabelCache.clear();
+    yLabelCache.clear();
+    invalidateChrome();
+  }
+
+  /**
+   * Same as {@link #invalidateLabels()} for the x axis labels only.
+   */
+  public void invalidateXLabels() {
+    xLabelCache.clear();
+    invalidateChrome();
+  }
+
+  /**
+   * Same as {@link #invalidateLabels()} for the y axis labels only.
+   */
+  public void invalidateYLabels() {
+    yLabelCache.clear();
+    invalidateChrome();
+  }
+
+  /**
+   * Marks grid, ticks, labels and axes for redrawing. They are cached in chromeBmp and not
+   * redrawn by the animation frames.
+   */
+  protected void invalidateChrome() {
+    chromeDirty = true;
+    postInvalidate();
+  }
+
   public void setXValueLabelEnabled(boolean v) {
     xValueLabelEnabled = v;
-    postInvalidate();
+    invalidateChrome();
   }
 
   public void setYValueLabelEnabled(boolean v) {
     yValueLabelEnabled = v;
-    postInvalidate();
+    invalidateChrome();
   }
 
-  private void calcTicks(Ticks ticks, double min, double max) {
+  private static void calcTicks(Ticks ticks, double min, double max) {
     synchronized (ticks) {
 //      if (ticks.overrideValueMin && ticks.overrideValueMax) {
 //        return;
@@ -427,15 +1457,125 @@ public class ExpandingLineChart extends View {
     }
   }
 
+  private void updateWindowTicks() {
+    calcTicks(xTicks, windowEnd - xWindow, windowEnd);
+    synchronized (xTicks) {
+      xTicks.valueMin = windowEnd - xWindow;
+      xTicks.valueMax = windowEnd;
+    }
+  }
+
+  private void evictOutsideWindow() {
+    double windowStart = windowEnd - xWindow;
+    for (int i = 0; i < seriesList.size(); i++) {
+      if (!(seriesList.get(i) instanceof SeriesData)) {
+        continue;
+      }
+      SeriesData dataset = (SeriesData) seriesList.get(i);
+      // keep one point left of the window so the line still enters from the left edge
+      int evict = 0;
+      while (evict + 1 < dataset.size() && dataset.getX(evict + 1) <= windowStart) {
+        evict++;
+      }
+      if (evict == 0) {
+        continue;
+      }
+      dataset.removeHead(evict);
+      if (i < windowDrawn.length) {
+        windowDrawn[i] = Math.max(0, windowDrawn[i] - evict);
+      }
+    }
+  }
+
+  /**
+   * Moves the window so that it ends at or after the newest point. The shift is rounded up to
+   * whole pixels so the already drawn bitmap content can be moved instead of redrawn.
+   */
+  private void scrollWindow() {
+    if (xMax <= windowEnd) {
+      return;
+    }
+
+    if (chartBmp == null) {
+      windowEnd = xMax;
+      updateWindowTicks();
+      evictOutsideWindow();
+      return;
+    }
+
+    int w = chartBmp.getWidth();
+    double pxPerX = w / xWindow;
+    long shiftPx = (long) Math.ceil((xMax - windowEnd) * pxPerX);
+    windowEnd += shiftPx / pxPerX;
+    updateWindowTicks();
+    evictOutsideWindow();
+
+    if (clearBmp) {
+      return;
+    }
+    if (shiftPx >= w) {
+      clearBmp = true;
+      return;
+    }
+
+    if (scrollBmp == null || scrollBmp.getWidth() != w || scrollBmp.getHeight() != chartBmp.getHeight() ||
+        scrollBmp.getConfig() != bitmapConfig) {
+      BitmapPool.release(scrollBmp);
+      scrollBmp = BitmapPool.obtain(w, chartBmp.getHeight(), bitmapConfig);
+      scrollCanvas = new Canvas(scrollBmp);
+    }
+    clearChartCanvas(scrollCanvas);
+    scrollCanvas.drawBitmap(chartBmp, -shiftPx, 0, null);
+
+    Bitmap bmp = chartBmp;
+    chartBmp = scrollBmp;
+    scrollBmp = bmp;
+    Canvas c = bmpCanvas;
+    bmpCanvas = scrollCanvas;
+    scrollCanvas = c;
+  }
+
+  /**
+   * Window mode counterpart of the expanding animation: draws every segment that is not on the
+   * bitmap yet in one go, so the cost only depends on how many points arrived since last time.
+   */
+  private void drawWindow(Canvas canvas) {
+    if (canvas == null) {
+      return;
+    }
+
+    if (windowDrawn.length < seriesList.size()) {
+      windowDrawn = new int[seriesList.size()];
+      clearBmp = true;
+    }
+
+    if (clearBmp) {
+      clearBmp = false;
+      clearChartCanvas(canvas);
+      for (int i = 0; i < windowDrawn.length; i++) {
+        windowDrawn[i] = 0;
+      }
+    }
+
+    for (int i = 0; i < legendList.size(); i++) {
+      int size = seriesList.get(i).size();
+      renderList.set(i, seriesList.get(i));
+      drawSeriesRange(canvas, null, i, Math.max(windowDrawn[i] - 1, 0), size);
+      windowDrawn[i] = size;
+    }
+
+    invalidate();
+  }
+
   boolean running = false;
 
   protected void recreateChartBmp(int w, int h) {
     //    float density = getContext().getResources().getDisplayMetrics().density;
 
 //        int bottom = (int)yAxisTextPaint.getTextSize() + 2 * padding;
-    int bottom = (int) yAxisTextPaint.measureText("00000") + padding + axisTextPadding;
+    int bottom = chartBottom(yAxisTextPaint, padding, axisTextPadding);
     int top = padding;
-    int left = (int) xAxisTextPaint.measureText(String.format("%.0f", yTicks.valueMax)) + padding + axisTextPadding;
+    int left = chartLeft(xAxisTextPaint, yTicks.valueMax, padding, axisTextPadding);
     int right = padding;
     chartBmpX = left;
     chartBmpY = top;
@@ -444,14 +1584,56 @@ public class ExpandingLineChart extends View {
     int bmpW = w - left - right;
     int bmpH = h - top - bottom;
 
+    releaseChartBmp();
+    chromeDirty = true;
+
     if (bmpW <= 0 || bmpH <= 0) {
-      chartBmp = null;
+      return;
+    }
+
+    if (renderInBackground && xWindow <= 0) {
+      // both bitmaps belong to the render thread, chartBmp is only kept for its size
+      renderer = new BackgroundRenderer(this, bmpW, bmpH, bitmapConfig,
+        isChartOpaque() ? chartBackground : Color.TRANSPARENT);
+      chartBmp = renderer.getFront();
       bmpCanvas = null;
       return;
     }
 
-    chartBmp = Bitmap.createBitmap(bmpW, bmpH, Bitmap.Config.ARGB_8888);
+    chartBmp = BitmapPool.obtain(bmpW, bmpH, bitmapConfig);
     bmpCanvas = new Canvas(chartBmp);
+    if (isChartOpaque()) {
+      bmpCanvas.drawColor(chartBackground);
+    }
+  }
+
+  /**
+   * Left margin of the chart bitmap, wide enough for the label of the highest y tick.
+   */
+  private static int chartLeft(Paint labelPaint, double yValueMax, int padding, int axisTextPadding) {
+    return (int) labelPaint.measureText(String.format("%.0f", yValueMax)) + padding + axisTextPadding;
+  }
+
+  private static int chartBottom(Paint labelPaint, int padding, int axisTextPadding) {
+    return (int) labelPaint.measureText("00000") + padding + axisTextPadding;
+  }
+
+  /**
+   * Gives the chart bitmaps back to the pool, they are obtained again by the next
+   * recreateChartBmp.
+   */
+  private void releaseChartBmp() {
+    if (renderer != null) {
+      renderer.release();
+      renderer = null;
+    } else {
+      BitmapPool.release(chartBmp);
+    }
+    chartBmp = null;
+    bmpCanvas = null;
+    BitmapPool.release(scrollBmp);
+    scrollBmp = null;
+    scrollCanvas = null;
   }
 
   @Override
@@ -493,14 +1675,40 @@ public class ExpandingLineChart extends View {
 
   @Override
   protected void onDraw(Canvas canvas) {
-    if (getVisibility() != VISIBLE || datasetList.size() == 0 || chartBmp == null) {
+    if (getVisibility() != VISIBLE || seriesList.size() == 0 || chartBmp == null) {
       super.onDraw(canvas);
       return;
     }
 
-    float scaledDensity = getContext().getResources().getDisplayMetrics().scaledDensity;
-    float density = getContext().getResources().getDisplayMetrics().density;
+    if (chromeBmp == null || chromeBmp.getWidth() != getWidth() || chromeBmp.getHeight() != getHeight()) {
+      BitmapPool.release(chromeBmp);
+      chromeBmp = BitmapPool.obtain(getWidth(), getHeight(), Bitmap.Config.ARGB_8888);
+      chromeCanvas = new Canvas(chromeBmp);
+      chromeDirty = true;
+    }
+    if (chromeDirty) {
+      chromeDirty = false;
+      chromeCanvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+      drawChrome(chromeCanvas);
+    }
+    chartRect.set(chartBmpX, chartBmpY, chartBmpX + chartBmp.getWidth(), chartBmpY + chartBmp.getHeight());
+    Bitmap bmp = renderer != null ? renderer.getFrontForDraw() : chartBmp;
+    if (awaitingDraw) {
+      awaitingDraw = false;
+      removeCallbacks(undrawnRunnable);
+      post(scheduleFrameRunnable);
+    }
+    if (isChartOpaque()) {
+      // an opaque chart bitmap would hide the grid
+      canvas.drawBitmap(bmp, null, chartRect, paintList.get(0));
+      canvas.drawBitmap(chromeBmp, 0, 0, null);
+      return;
+    }
+    canvas.drawBitmap(chromeBmp, 0, 0, null);
+    canvas.drawBitmap(bmp, null, chartRect, paintList.get(0));
+  }
 
+  private void drawChrome(Canvas canvas) {
     if (yTicks.enabled) {
       synchronized (yTicks) {
         for (double currTicks = yTicks.valueMin; currTicks <= yTicks.valueMax; currTicks += yTicks.appliedInterval) {
@@ -509,7 +1717,7 @@ public class ExpandingLineChart extends View {
           //Log.v(TAG, "currTicks " + currTicks + " " + ticksValueMax + " " + y);
           canvas.drawLine(chartBmpX, (float) y, chartBmpX + chartBmp.getWidth(), (float) y, gridPaint);
 //                Log.d(TAG, "formatting ticks " + (long)currTicks + String.format(" %.0f", currTicks));
-          String ticksText = formatLabel(currTicks, yLabelFormatterCallback);
+          String ticksText = yLabelCache.get(currTicks, yLabelFormatterCallback).text;
           canvas.drawText(ticksText, chartBmpX - axisTextPadding, (float) y + (yAxisTextPaint.getTextSize() / 2), yAxisTextPaint);
         }
       }
@@ -517,10 +1725,16 @@ public class ExpandingLineChart extends View {
 
     if (xTicks.enabled) {
       synchronized (xTicks) {
-        for (double currTicks = xTicks.valueMin; currTicks <= xTicks.valueMax; currTicks += xTicks.appliedInterval) {
+        double firstTicks = xTicks.valueMin;
+        if (xWindow > 0 || xRangeSet) {
+          // the window edges and a panned or zoomed viewport move freely, keep the ticks on
+          // round values
+          firstTicks = Math.ceil(xTicks.valueMin / xTicks.appliedInterval) * xTicks.appliedInterval;
+        }
+        for (double currTicks = firstTicks; currTicks <= xTicks.valueMax; currTicks += xTicks.appliedInterval) {
 //          Log.d(TAG, "drawing xtick " + currTicks + " max " + xTicks.valueMax + " itvl " + xTicks.appliedInterval);
           double val = currTicks;
-          double[] xy = new double[2];
+          double[] xy = xyBuff;
           drawXLabel(canvas, val, xy);
           double x = xy[0], y = xy[1];
           canvas.drawLine((float) x, chartBmpY, (float) x, (float) y, gridPaint);
@@ -528,37 +1742,42 @@ public class ExpandingLineChart extends View {
       }
     }
 
-    for (int i = 0; i < datasetList.size(); i++) {
-      ArrayList<PointD> dataset = datasetList.get(i);
-      for (int j = 0; j < dataset.size(); j++) {
-        if (yValueLabelEnabled) {
-          double val = dataset.get(j).y;
-          double y = chartBmpY + (chartBmp.getHeight() - ((val - yTicks.valueMin) * chartBmp.getHeight() / (yTicks.valueMax - yTicks.valueMin)));
-          String ticksText = formatLabel(val, yLabelFormatterCallback);
-          canvas.drawText(ticksText,
-            chartBmpX - axisTextPadding, (float) y + (yAxisTextPaint.getTextSize() / 2), yAxisTextPaint);
-        }
-        if (xValueLabelEnabled) {
-          double val = dataset.get(j).x;
-          double[] xy = new double[2];
-          drawXLabel(canvas, val, xy);
-          double x = xy[0], y = xy[1];
-          canvas.drawLine((float) x, chartBmpY, (float) x, (float) y, gridPaint);
-        }
+    if (xValueLabelEnabled || yValueLabelEnabled) {
+      // rotated x labels are parallel, their distance is dx * sin(45)
+      valueLabelLayout.update(seriesList, renderList, xValueLabelEnabled, yValueLabelEnabled,
+        chartBmp.getWidth(), chartBmp.getHeight(),
+        xTicks.valueMin, xTicks.valueMax, yTicks.valueMin, yTicks.valueMax,
+        xAxisTextPaint.getTextSize() * 1.42f, yAxisTextPaint.getTextSize());
+    }
+
+    if (yValueLabelEnabled) {
+      for (int i = 0; i < valueLabelLayout.yCount; i++) {
+        double val = valueLabelLayout.yValues[i];
+        double y = chartBmpY + (chartBmp.getHeight() - ((val - yTicks.valueMin) * chartBmp.getHeight() / (yTicks.valueMax - yTicks.valueMin)));
+        String ticksText = yLabelCache.get(val, yLabelFormatterCallback).text;
+        canvas.drawText(ticksText,
+          chartBmpX - axisTextPadding, (float) y + (yAxisTextPaint.getTextSize() / 2), yAxisTextPaint);
+      }
+    }
+
+    if (xValueLabelEnabled) {
+      for (int i = 0; i < valueLabelLayout.xCount; i++) {
+        double val = valueLabelLayout.xValues[i];
+        double[] xy = xyBuff;
+        drawXLabel(canvas, val, xy);
+        double x = xy[0], y = xy[1];
+        canvas.drawLine((float) x, chartBmpY, (float) x, (float) y, gridPaint);
       }
     }
 
     canvas.drawLine(chartBmpX, chartBmpY, chartBmpX, chartBmpY + chartBmp.getHeight() + (axisPaint.getStrokeWidth() / 2), axisPaint);
     canvas.drawLine(chartBmpX, chartBmpY + chartBmp.getHeight(), chartBmpX + chartBmp.getWidth(), chartBmpY + chartBmp.getHeight(), axisPaint);
-
-    Rect rect = new Rect(chartBmpX, chartBmpY, chartBmpX + chartBmp.getWidth(), chartBmpY + chartBmp.getHeight());
-    canvas.drawBitmap(chartBmp, null, rect, paintList.get(0));
   }
 
   private void drawXLabel(Canvas canvas, double val, double[] xy) {
     double x = chartBmpX + ((val - xTicks.valueMin) * chartBmp.getWidth() / (xTicks.valueMax - xTicks.valueMin));
     double y = chartBmpY + chartBmp.getHeight();
-    String ticksText = formatLabel(val, xLabelFormatterCallback);
+    String ticksText = xLabelCache.get(val, xLabelFormatterCallback).text;
     canvas.save();
     canvas.translate((float) x + xAxisTextPaint.getTextSize() / 2, (float) y + xAxisTextPaint.getTextSize() / 2 + axisTextPadding);
     canvas.rotate(-45);
@@ -568,7 +1787,7 @@ public class ExpandingLineChart extends View {
     xy[1] = y;
   }
 
-  private String formatLabel(double val, LabelFormatterCallback labelFormatterCallback) {
+  static String formatLabel(double val, LabelFormatterCallback labelFormatterCallback) {
 //        Log.d(TAG, "formatLabel labelFormatterCallback " + (labelFormatterCallback == null ? "null" : "1"));
     String ticksText;
     if (labelFormatterCallback != null) {
@@ -582,78 +1801,312 @@ public class ExpandingLineChart extends View {
     return ticksText;
   }
 
+  /**
+   * Draws the segments between points {@code from} and {@code to - 1} of a series, either right
+   * away on {@code canvas} or, when {@code batch} is given, into the batch.
+   */
+  private void drawSeriesRange(Canvas canvas, BackgroundRenderer.Batch batch, int seriesIndex, int from, int to) {
+    if (legendList.get(seriesIndex) == null) {
+      return;
+    }
+    SeriesSource dataset = renderList.get(seriesIndex);
+    Paint p = paintList.get(seriesIndex % paintList.size());
+    double xRange = xTicks.valueMax - xTicks.valueMin;
+    double yRange = yTicks.valueMax - yTicks.valueMin;
+    int w = chartBmp.getWidth(), h = chartBmp.getHeight();
+
+    if (lineMode == LINE_STRIP) {
+      p = stripPaintList.get(seriesIndex % stripPaintList.size());
+      int n = 0;
+      for (int j = from; j < to; j++) {
+        vtxBuff[n++] = (float) (((long) dataset.getX(j) - xTicks.valueMin) * w / xRange);
+        vtxBuff[n++] = (float) (h - ((dataset.getY(j) - yTicks.valueMin) * h / yRange));
+        addDirty(vtxBuff[n - 2], vtxBuff[n - 1]);
+        if (n == vtxBuff.length || j == to - 1) {
+          if (n >= 4) {
+            drawStrip(canvas, batch, vtxBuff, 0, n, p);
+          }
+          if (j == to - 1) {
+            break;
+          }
+          // the next chunk continues from the last point
+          vtxBuff[0] = vtxBuff[n - 2];
+          vtxBuff[1] = vtxBuff[n - 1];
+          n = 2;
+        }
+      }
+      return;
+    }
+
+    int vtxIdx = 0;
+    for (int j = from; j < to - 1; j++) {
+      vtxBuff[vtxIdx++] = (float) (((long) dataset.getX(j) - xTicks.valueMin) * w / xRange);
+      vtxBuff[vtxIdx++] = (float) (h - ((dataset.getY(j) - yTicks.valueMin) * h / yRange));
+      vtxBuff[vtxIdx++] = (float) (((long) dataset.getX(j + 1) - xTicks.valueMin) * w / xRange);
+      vtxBuff[vtxIdx++] = (float) (h - ((dataset.getY(j + 1) - yTicks.valueMin) * h / yRange));
+      addDirty(vtxBuff[vtxIdx - 4], vtxBuff[vtxIdx - 3]);
+      addDirty(vtxBuff[vtxIdx - 2], vtxBuff[vtxIdx - 1]);
+      if (vtxIdx == vtxBuff.length || j == to - 2) {
+        if (batch != null) {
+          batch.add(vtxBuff, vtxIdx, p);
+        } else {
+          canvas.drawLines(vtxBuff, 0, vtxIdx, p);
+        }
+        vtxIdx = 0;
+      }
+    }
+  }
+
+  private void resetDirty() {
+    dirtyLeft = dirtyTop = Float.POSITIVE_INFINITY;
+    dirtyRight = dirtyBottom = Float.NEGATIVE_INFINITY;
+  }
+
+  private void addDirty(float x, float y) {
+    if (x < dirtyLeft) {
+      dirtyLeft = x;
+    }
+    if (x > dirtyRight) {
+      dirtyRight = x;
+    }
+    if (y < dirtyTop) {
+      dirtyTop = y;
+    }
+    if (y > dirtyBottom) {
+      dirtyBottom = y;
+    }
+  }
+
+  /**
+   * Sets {@code out} to the view area covered by the points passed to addDirty() since the last
+   * resetDirty(), grown by half the widest stroke and a pixel of anti-aliasing. Empty if nothing
+   * was drawn on the chart bitmap or if the view is hardware accelerated.
+   */
+  private void getDirtyRect(Rect out) {
+    if (isHardwareAccelerated()) {
+      // the whole view is redrawn anyway
+      out.setEmpty();
+      return;
+    }
+    int w = chartBmp.getWidth(), h = chartBmp.getHeight();
+    float pad = maxStrokeWidth / 2 + 1;
+    // clamped to the bitmap first, points outside the x range can be anywhere
+    int left = (int) Math.floor(Math.max(dirtyLeft - pad, 0));
+    int top = (int) Math.floor(Math.max(dirtyTop - pad, 0));
+    int right = (int) Math.ceil(Math.min(dirtyRight + pad, w));
+    int bottom = (int) Math.ceil(Math.min(dirtyBottom + pad, h));
+    if (left >= right || top >= bottom) {
+      out.setEmpty();
+      return;
+    }
+    out.set(chartBmpX + left, chartBmpY + top, chartBmpX + right, chartBmpY + bottom);
+  }
+
+  /**
+   * Invalidates the chart area drawn since resetDirty(), nothing if there is none. Software
+   * rendering only, dirty rects are deprecated because hardware rendering ignores them.
+   */
+  @SuppressWarnings("deprecation")
+  private void invalidateDirty() {
+    getDirtyRect(dirtyRect);
+    if (!dirtyRect.isEmpty()) {
+      invalidate(dirtyRect);
+    }
+  }
+
+  private void drawStrip(Canvas canvas, BackgroundRenderer.Batch batch, float[] pts, int offset,
+                         int count, Paint p) {
+    if (batch != null) {
+      batch.addStrip(pts, offset, count, p);
+      return;
+    }
+    BackgroundRenderer.stripToPath(stripPath, pts, offset, count);
+    canvas.drawPath(stripPath, p);
+  }
+
+  private void updateRenderList(int width) {
+    for (int i = 0; i < seriesList.size(); i++) {
+      renderList.set(i, decimators.get(i).get(seriesList.get(i), decimation, width,
+        decimationTarget, xTicks.valueMin, xTicks.valueMax));
+    }
+    if (yValueLabelEnabled) {
+      // y value labels are picked from the decimated series
+      valueLabelLayout.invalidate();
+      invalidateChrome();
+    }
+  }
+
+  /**
+   * Makes sure the batch buffers fit {@code seriesCount} series of {@code pointsPerSeries}
+   * points. Buffers only ever grow, so once sized no frame allocates.
+   */
+  private void ensureVertexCapacity(int seriesCount, int pointsPerSeries) {
+    int stride = pointsPerSeries * 2;
+    if (stride > toDrawStride || seriesCount * stride > toDraw.length) {
+      toDrawStride = Math.max(stride, toDrawStride);
+      toDraw = new float[seriesCount * toDrawStride];
+    }
+    if (seriesCount > toDrawSizes.length) {
+      toDrawSizes = new int[seriesCount];
+    }
+    int segments = Math.max(pointsPerSeries - 1, 1);
+    if (segments * 4 > vtxBuff.length) {
+      vtxBuff = new float[segments * 4];
+    }
+  }
+
   private void drawChart(Canvas canvas) {
-    Log.v(TAG, "drawChart clear " + clearBmp + " xAlreadyDrawn " + xAlreadyDrawn + " canvas " + ((canvas != null) ? "1" : "null"));
+    if (Log.isLoggable(TAG, Log.VERBOSE)) {
+      Log.v(TAG, "drawChart clear " + clearBmp + " xAlreadyDrawn " + xAlreadyDrawn + " canvas " + ((canvas != null) ? "1" : "null"));
+    }
 
     if (getVisibility() != VISIBLE) {
       running = false;
+      lastStepNanos = 0;
       return;
     }
 
-    if (canvas == null) {
-      new Handler(getContext().getMainLooper()).postDelayed(new Runnable() {
-        @Override
-        public void run() {
-          drawChart(bmpCanvas);
-        }
-      }, interval);
+    if (canvas == null && renderer == null) {
+      if (!isAttachedToWindow()) {
+        // bitmaps were released, onAttachedToWindow starts over
+        running = false;
+        lastStepNanos = 0;
+        return;
+      }
+      scheduleFrame();
+
+      return;
+    }
 
+    if (xWindow > 0) {
+      drawWindow(canvas);
+      running = false;
+      lastStepNanos = 0;
       return;
     }
 
+    int canvasWidth = chartBmp.getWidth(), canvasHeight = chartBmp.getHeight();
+
+    BackgroundRenderer.Batch batch = null;
+    if (renderer != null) {
+      if (!renderer.isReady()) {
+        // the batch in flight is published with an invalidate, onDraw restarts the animation
+        awaitingDraw = true;
+        if (renderer.isWaitingForDraw() && !isHardwareAccelerated()) {
+          removeCallbacks(undrawnRunnable);
+          postDelayed(undrawnRunnable, UNDRAWN_CHECK_MS);
+        }
+        return;
+      }
+      batch = renderer.obtainBatch();
+    }
+    resetDirty();
+
+    boolean atOnce = redrawAtOnce || skipAnimation;
+    long now = lastStepNanos != 0 ? lastStepNanos : System.nanoTime();
+    boolean cleared = clearBmp;
+
     if (clearBmp) {
       clearBmp = false;
-      canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+      if (batch != null) {
+        batch.clear = true;
+      } else {
+        clearChartCanvas(canvas);
+      }
+      updateRenderList(canvasWidth);
+      for (int i = 0; i < lateFrom.length; i++) {
+        lateFrom[i] = -1;
+      }
+      revealStartNanos = now;
 
-      new Handler(getContext().getMainLooper()).postDelayed(new Runnable() {
-        @Override
-        public void run() {
-          drawChart(bmpCanvas);
+      if (!atOnce) {
+        if (batch != null) {
+          renderer.submit(batch);
         }
-      }, interval);
 
-      invalidate();
+        scheduleFrame();
 
-      return;
+        invalidate();
+
+        return;
+      }
     }
 
     int maxX = 0;
     for (int i = 0; i < legendList.size(); i++) {
-      toDrawSizes[i] = 0;
-
-      int labelSize = datasetList.get(i).size();
+      int labelSize = renderList.get(i).size();
 
       if (labelSize > maxX) {
         maxX = labelSize;
       }
     }
+
+    // one series can get every point of the frame budget, plus the one it continues from
+    int pointsBudget = drawCountPerFrame * frameSteps;
+    int pointsPerSeries = pointsBudget + 1;
+    int stepLimit = Integer.MAX_VALUE;
+    if (atOnce) {
+      // drawn below in vtxBuff sized chunks, the step loop does not run
+      stepLimit = -1;
+      pointsPerSeries = 1;
+    } else if (revealDurationNanos > 0) {
+      pointsBudget = Integer.MAX_VALUE;
+      stepLimit = revealSteps(maxX, now);
+      pointsPerSeries = stepLimit + 1;
+    }
+    ensureVertexCapacity(legendList.size(), pointsPerSeries);
+    for (int i = 0; i < legendList.size(); i++) {
+      toDrawSizes[i] = 0;
+    }
+    if (batch != null) {
+      for (int i = 0; i < lateFrom.length; i++) {
+        if (lateFrom[i] >= 0) {
+          drawSeriesRange(null, batch, i, lateFrom[i], Math.min(renderList.get(i).size(), xAlreadyDrawn));
+          lateFrom[i] = -1;
+        }
+      }
+    }
+
     int toDrawCount = 0;
     int xIdx = xAlreadyDrawn;
     if (xIdx > 0) {
       xIdx--;
     }
 
-    for (int j = 0; toDrawCount < drawCountPerFrame && j < maxX; j++, xIdx++) {
+    if (atOnce) {
+      if (vtxBuff.length < AT_ONCE_CHUNK) {
+        vtxBuff = new float[AT_ONCE_CHUNK];
+      }
+      for (int i = 0; i < legendList.size(); i++) {
+        drawSeriesRange(canvas, batch, i, xIdx, renderList.get(i).size());
+      }
+      xIdx = maxX;
+    }
+
+    long drawStart = revealDurationNanos > 0 ? System.nanoTime() : 0;
+
+    for (int j = 0; toDrawCount < pointsBudget && j < maxX && j <= stepLimit; j++, xIdx++) {
       for (int i = 0; i < legendList.size(); i++) {
         if (legendList.get(i) == null) {
           continue;
         }
-        ArrayList<PointD> dataset = datasetList.get(i);
+        SeriesSource dataset = renderList.get(i);
 
         if (xIdx < dataset.size()) {
-          long datetime = (long) dataset.get(xIdx).x;
-          float val = (float) dataset.get(xIdx).y;
+          long datetime = (long) dataset.getX(xIdx);
+          float val = (float) dataset.getY(xIdx);
 
 //                    float scaledX = (float) ((datetime - xMin) * canvas.getWidth() / (xMax - xMin));
-          float scaledX = (float) ((datetime - xTicks.valueMin) * canvas.getWidth() / (xTicks.valueMax - xTicks.valueMin));
+          float scaledX = (float) ((datetime - xTicks.valueMin) * canvasWidth / (xTicks.valueMax - xTicks.valueMin));
 //                    float scaledY = (float) ((val - yMin) * canvas.getHeight() / (yMax - yMin));
 //                    float scaledY = (float) (canvas.getHeight() - ((val - yMin) * canvas.getHeight() / (yMax - yMin)));
-          float scaledY = (float) (canvas.getHeight() - ((val - yTicks.valueMin) * canvas.getHeight() / (yTicks.valueMax - yTicks.valueMin)));
+          float scaledY = (float) (canvasHeight - ((val - yTicks.valueMin) * canvasHeight / (yTicks.valueMax - yTicks.valueMin)));
 
-          int toDrawIdx = i * 200 + j * 2;
+          int toDrawIdx = i * toDrawStride + j * 2;
 
           toDraw[toDrawIdx] = scaledX;
           toDraw[toDrawIdx + 1] = scaledY;
+          addDirty(scaledX, scaledY);
 
           toDrawSizes[i]++;
 
@@ -677,10 +2130,19 @@ public class ExpandingLineChart extends View {
       if (legendList.get(i) == null) {
         continue;
       }
+      if (lineMode == LINE_STRIP) {
+        if (toDrawSizes[i] < 2) {
+          continue;
+        }
+        // starts at the point the previous step ended on
+        drawStrip(canvas, batch, toDraw, i * toDrawStride, toDrawSizes[i] * 2,
+          stripPaintList.get(i % stripPaintList.size()));
+        continue;
+      }
       int vtxIdx = 0;
       for (int j = 0; j < toDrawSizes[i] - 1; j++) {
-        int toDrawIdx = i * 200 + j * 2;
-        int toDrawIdx2 = i * 200 + (j + 1) * 2;
+        int toDrawIdx = i * toDrawStride + j * 2;
+        int toDrawIdx2 = i * toDrawStride + (j + 1) * 2;
 
         vtxBuff[vtxIdx++] = toDraw[toDrawIdx];
         vtxBuff[vtxIdx++] = toDraw[toDrawIdx + 1];
@@ -689,6 +2151,10 @@ public class ExpandingLineChart extends View {
       }
 
       Paint p = paintList.get(i % paintList.size());
+      if (batch != null) {
+        batch.add(vtxBuff, vtxIdx, p);
+        continue;
+      }
       canvas.drawLines(vtxBuff, 0, vtxIdx, p);
       if (vtxIdx == 4 &&
           vtxBuff[0] == vtxBuff[2] &&
@@ -699,7 +2165,20 @@ public class ExpandingLineChart extends View {
 
     xAlreadyDrawn = xIdx;
 
-    Log.v(TAG, "drawChart end " + xAlreadyDrawn + " " + maxX);
+    if (drawStart != 0 && toDrawCount > 0) {
+      long sample = (System.nanoTime() - drawStart) / toDrawCount;
+      nanosPerPoint = nanosPerPoint == 0 ? sample : (nanosPerPoint * 3 + sample) / 4;
+    }
+
+    if (batch != null && (batch.runs > 0 || batch.clear)) {
+      getDirtyRect(batch.dirty);
+      renderer.submit(batch);
+    }
+    redrawAtOnce = false;
+
+    if (Log.isLoggable(TAG, Log.VERBOSE)) {
+      Log.v(TAG, "drawChart end " + xAlreadyDrawn + " " + maxX);
+    }
 
 
 //        if (xAlreadyDrawn >= maxX) {
@@ -718,18 +2197,164 @@ public class ExpandingLineChart extends View {
 //            postInvalidate();
 //        }
 
-    invalidate();
+    // the renderer invalidates once the batch is published
+    if (batch == null) {
+      if (cleared || isHardwareAccelerated()) {
+        invalidate();
+      } else {
+        invalidateDirty();
+      }
+    }
 
     if (xAlreadyDrawn < maxX) {
       Log.v(TAG, "to next drawChart");
-      new Handler(getContext().getMainLooper()).postDelayed(new Runnable() {
-        @Override
-        public void run() {
-          drawChart(bmpCanvas);
-        }
-      }, interval);
+      scheduleFrame();
     } else {
       running = false;
+      lastStepNanos = 0;
+    }
+  }
+
+  /**
+   * New points each series may draw in this frame of a timed reveal: what is due by now, capped
+   * so the frame stays within the rasterizing budget.
+   */
+  private int revealSteps(int maxX, long now) {
+    long elapsed = now - revealStartNanos;
+    long due = elapsed >= revealDurationNanos ? maxX :
+      (long) Math.ceil((double) maxX * elapsed / revealDurationNanos);
+    int steps = (int) Math.max(due - xAlreadyDrawn, 0);
+    if (nanosPerPoint > 0) {
+      long affordable = frameBudgetNanos / nanosPerPoint / Math.max(legendList.size(), 1);
+      steps = (int) Math.min(steps, Math.max(affordable, 1));
+    } else {
+      // the vertex buffers are sized for the frame, do not size them for the whole series
+      steps = Math.min(steps, FIRST_REVEAL_STEPS);
+    }
+    return steps;
+  }
+
+  /**
+   * One animation step at vsync time {@code frameTimeNanos}. Must not allocate once the chart is
+   * set up, see FrameAllocationTest.
+   */
+  void doAnimationFrame(long frameTimeNanos) {
+    if (lastStepNanos != 0) {
+      long elapsed = frameTimeNanos - lastStepNanos;
+      if (elapsed < frameIntervalNanos) {
+        FrameScheduler.getInstance().schedule(frameClient);
+        return;
+      }
+      frameSteps = (int) Math.min(elapsed / frameIntervalNanos, MAX_CATCH_UP_STEPS);
+    }
+    lastStepNanos = frameTimeNanos;
+    drawChart(bmpCanvas);
+    frameSteps = 1;
+  }
+
+  private void scheduleFrame() {
+    if (Looper.myLooper() != Looper.getMainLooper()) {
+      post(scheduleFrameRunnable);
+      return;
+    }
+    FrameScheduler.getInstance().schedule(frameClient);
+  }
+
+  @Override
+  public boolean onTouchEvent(MotionEvent event) {
+    if (!viewportGestures || xWindow > 0 || chartBmp == null) {
+      return super.onTouchEvent(event);
+    }
+    if (gestureDetector == null) {
+      gestureDetector = new GestureDetector(getContext(), new GestureDetector.SimpleOnGestureListener() {
+        @Override
+        public boolean onDown(MotionEvent e) {
+          return true;
+        }
+
+        @Override
+        public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+          double shift = distanceX * (xTicks.valueMax - xTicks.valueMin) / chartBmp.getWidth();
+          redrawAtOnce = true;
+          setXRange(xTicks.valueMin + shift, xTicks.valueMax + shift);
+          return true;
+        }
+
+        @Override
+        public boolean onSingleTapConfirmed(MotionEvent e) {
+          // confirmed, the first tap of a double tap is not a click
+          performClick();
+          return true;
+        }
+
+        @Override
+        public boolean onDoubleTap(MotionEvent e) {
+          resetXRange();
+          return true;
+        }
+      });
+      scaleGestureDetector = new ScaleGestureDetector(getContext(), new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+        @Override
+        public boolean onScale(ScaleGestureDetector detector) {
+          double from = xTicks.valueMin, to = xTicks.valueMax;
+          double focus = from + (detector.getFocusX() - chartBmpX) * (to - from) / chartBmp.getWidth();
+          double factor = detector.getScaleFactor();
+          if (factor <= 0) {
+            return false;
+          }
+          redrawAtOnce = true;
+          setXRange(focus - (focus - from) / factor, focus + (to - focus) / factor);
+          return true;
+        }
+      });
+    }
+
+    if (event.getActionMasked() == MotionEvent.ACTION_DOWN) {
+      // keep scrolling parents from taking the drag
+      ViewParent parent = getParent();
+      if (parent != null) {
+        parent.requestDisallowInterceptTouchEvent(true);
+      }
+    }
+    scaleGestureDetector.onTouchEvent(event);
+    if (!scaleGestureDetector.isInProgress()) {
+      gestureDetector.onTouchEvent(event);
+    }
+    return true;
+  }
+
+  /**
+   * Taps on a chart with viewport gestures are handled by onTouchEvent, which calls this for a
+   * single tap so click listeners and accessibility services see it.
+   */
+  @Override
+  public boolean performClick() {
+    return super.performClick();
+  }
+
+  @Override
+  protected void onAttachedToWindow() {
+    super.onAttachedToWindow();
+
+    if (chartBmp == null && getMeasuredWidth() > 0 && getMeasuredHeight() > 0) {
+      onResize(getMeasuredWidth(), getMeasuredHeight());
     }
   }
+
+  @Override
+  protected void onDetachedFromWindow() {
+    super.onDetachedFromWindow();
+
+    FrameScheduler.getInstance().cancel(frameClient);
+    removeCallbacks(undrawnRunnable);
+    running = false;
+    awaitingDraw = false;
+    lastStepNanos = 0;
+
+    // e.g. scrolled out of a list, another chart can use the bitmaps meanwhile
+    releaseChartBmp();
+    BitmapPool.release(chromeBmp);
+    chromeBmp = null;
+    chromeCanvas = null;
+  }
 }
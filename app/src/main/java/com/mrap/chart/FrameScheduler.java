@@ -0,0 +1,70 @@
+package com.mrap.chart;
+
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+
+/**
+ * One {@link Choreographer} frame callback shared by every chart in the process. Charts ask for
+ * the next frame with {@link #schedule(Client)} and get called back with the vsync frame time;
+ * a chart that still has work left simply schedules itself again. Main thread only.
+ */
+final class FrameScheduler implements Choreographer.FrameCallback {
+
+  interface Client {
+    void onFrame(long frameTimeNanos);
+  }
+
+  private static FrameScheduler instance = null;
+
+  static FrameScheduler getInstance() {
+    if (instance == null) {
+      instance = new FrameScheduler();
+    }
+    return instance;
+  }
+
+  private final Choreographer choreographer;
+  private ArrayList<Client> clients = new ArrayList<>();
+  private ArrayList<Client> dispatching = new ArrayList<>();
+  private boolean posted = false;
+
+  private FrameScheduler() {
+    choreographer = Choreographer.getInstance();
+  }
+
+  void schedule(Client client) {
+    if (clients.contains(client)) {
+      return;
+    }
+    clients.add(client);
+    if (!posted) {
+      posted = true;
+      choreographer.postFrameCallback(this);
+    }
+  }
+
+  void cancel(Client client) {
+    clients.remove(client);
+    dispatching.remove(client);
+    if (clients.isEmpty() && posted) {
+      posted = false;
+      choreographer.removeFrameCallback(this);
+    }
+  }
+
+  @Override
+  public void doFrame(long frameTimeNanos) {
+    posted = false;
+
+    // clients scheduled during dispatch go to the next frame
+    ArrayList<Client> tmp = dispatching;
+    dispatching = clients;
+    clients = tmp;
+
+    while (!dispatching.isEmpty()) {
+      Client client = dispatching.remove(dispatching.size() - 1);
+      client.onFrame(frameTimeNanos);
+    }
+  }
+}
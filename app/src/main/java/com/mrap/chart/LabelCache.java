@@ -0,0 +1,143 @@
+package com.mrap.chart;
+
+/**
+ * Formatted labels of one axis, keyed by value, with least recently used eviction.
+ * Changing the formatter drops everything. Lookups of cached values do not allocate.
+ */
+final class LabelCache {
+
+  static final class Label {
+    String text;
+  }
+
+  private final int capacity;
+  private ExpandingLineChart.LabelFormatterCallback formatter = null;
+
+  private final long[] keys;
+  private final Label[] labels;
+  // hash chains
+  private final int[] buckets;
+  private final int[] chain;
+  // LRU list, head is the most recently used
+  private final int[] prev;
+  private final int[] next;
+  private int head = -1;
+  private int tail = -1;
+  private int size = 0;
+
+  LabelCache(int capacity) {
+    this.capacity = capacity;
+    keys = new long[capacity];
+    labels = new Label[capacity];
+    chain = new int[capacity];
+    prev = new int[capacity];
+    next = new int[capacity];
+    int bucketCount = Integer.highestOneBit(capacity * 2 - 1) << 1;
+    buckets = new int[bucketCount];
+    for (int i = 0; i < capacity; i++) {
+      labels[i] = new Label();
+    }
+    clear();
+  }
+
+  void clear() {
+    for (int i = 0; i < buckets.length; i++) {
+      buckets[i] = -1;
+    }
+    for (int i = 0; i < capacity; i++) {
+      labels[i].text = null;
+    }
+    head = tail = -1;
+    size = 0;
+  }
+
+  Label get(double value, ExpandingLineChart.LabelFormatterCallback formatter) {
+    if (formatter != this.formatter) {
+      this.formatter = formatter;
+      clear();
+    }
+
+    long key = Double.doubleToLongBits(value);
+    int bucket = bucketOf(key);
+    for (int slot = buckets[bucket]; slot >= 0; slot = chain[slot]) {
+      if (keys[slot] == key) {
+        moveToHead(slot);
+        return labels[slot];
+      }
+    }
+
+    int slot;
+    if (size < capacity) {
+      slot = size++;
+    } else {
+      slot = tail;
+      unlink(slot);
+      removeFromBucket(slot);
+    }
+
+    keys[slot] = key;
+    Label label = labels[slot];
+    label.text = ExpandingLineChart.formatLabel(value, formatter);
+
+    chain[slot] = buckets[bucket];
+    buckets[bucket] = slot;
+    linkHead(slot);
+    return label;
+  }
+
+  private int bucketOf(long key) {
+    int h = (int) (key ^ (key >>> 32));
+    h ^= (h >>> 16);
+    return h & (buckets.length - 1);
+  }
+
+  private void removeFromBucket(int slot) {
+    int bucket = bucketOf(keys[slot]);
+    int s = buckets[bucket];
+    if (s == slot) {
+      buckets[bucket] = chain[slot];
+      return;
+    }
+    while (s >= 0) {
+      if (chain[s] == slot) {
+        chain[s] = chain[slot];
+        return;
+      }
+      s = chain[s];
+    }
+  }
+
+  private void moveToHead(int slot) {
+    if (slot == head) {
+      return;
+    }
+    unlink(slot);
+    linkHead(slot);
+  }
+
+  private void unlink(int slot) {
+    int p = prev[slot], n = next[slot];
+    if (p >= 0) {
+      next[p] = n;
+    } else {
+      head = n;
+    }
+    if (n >= 0) {
+      prev[n] = p;
+    } else {
+      tail = p;
+    }
+  }
+
+  private void linkHead(int slot) {
+    prev[slot] = -1;
+    next[slot] = head;
+    if (head >= 0) {
+      prev[head] = slot;
+    }
+    head = slot;
+    if (tail < 0) {
+      tail = slot;
+    }
+  }
+}
@@ -0,0 +1,150 @@
+package com.mrap.chart;
+
+/**
+ * Min/max level of detail for one sorted series. Level k splits the series in buckets of 2^k
+ * consecutive points and stores the index of the lowest and highest point of each bucket, every
+ * level being built from the one below. Reading a range at a given level costs the number of
+ * buckets in it, however many points they cover.
+ */
+final class LodPyramid {
+  // finer levels are not worth their memory, a couple of points per bucket are as cheap to scan
+  private static final int MIN_LEVEL = 2;
+  // buckets of the finest level, bounds the pyramid to a few MB however large the series
+  private static final int MAX_BUCKETS = 1 << 18;
+
+  private int minLevel = MIN_LEVEL;
+
+  private SeriesSource source = null;
+  private int version = -1;
+  private int size = 0;
+
+  // [level - minLevel][bucket]
+  private int[][] minIdx = new int[0][];
+  private int[][] maxIdx = new int[0][];
+
+  SeriesSource getSource() {
+    return source;
+  }
+
+  boolean isBuiltFor(SeriesSource source) {
+    return source == this.source && source.getVersion() == version;
+  }
+
+  /** Finest level, buckets below it are read point by point. */
+  int minLevel() {
+    return minLevel;
+  }
+
+  /** Highest level available, minLevel() - 1 if there is none. */
+  int maxLevel() {
+    return minLevel + minIdx.length - 1;
+  }
+
+  int getMinIndex(int level, int bucket) {
+    return minIdx[level - minLevel][bucket];
+  }
+
+  int getMaxIndex(int level, int bucket) {
+    return maxIdx[level - minLevel][bucket];
+  }
+
+  void build(SeriesSource source) {
+    this.source = source;
+    size = 0;
+    minLevel = MIN_LEVEL;
+    while ((source.size() >> minLevel) > MAX_BUCKETS) {
+      minLevel++;
+    }
+    minIdx = new int[0][];
+    maxIdx = new int[0][];
+    update(source);
+  }
+
+  /**
+   * Brings the pyramid up to date after points were appended to the source: only the last
+   * bucket of every level and the new ones are recomputed.
+   */
+  void update(SeriesSource source) {
+    if (source != this.source || source.size() < size) {
+      build(source);
+      return;
+    }
+    int oldSize = size;
+    int n = source.size();
+    ensureLevels(n);
+
+    for (int l = 0; l < minIdx.length; l++) {
+      int level = l + minLevel;
+      int buckets = bucketCount(n, level);
+      if (minIdx[l].length < buckets) {
+        int capacity = Math.max(buckets, minIdx[l].length * 2);
+        int[] newMin = new int[capacity];
+        int[] newMax = new int[capacity];
+        System.arraycopy(minIdx[l], 0, newMin, 0, minIdx[l].length);
+        System.arraycopy(maxIdx[l], 0, newMax, 0, maxIdx[l].length);
+        minIdx[l] = newMin;
+        maxIdx[l] = newMax;
+      }
+
+      for (int b = oldSize >> level; b < buckets; b++) {
+        int lo, hi;
+        if (l == 0) {
+          int start = b << level, end = Math.min(start + (1 << level), n);
+          lo = hi = start;
+          for (int j = start + 1; j < end; j++) {
+            double y = source.getY(j);
+            if (y < source.getY(lo)) {
+              lo = j;
+            }
+            if (y > source.getY(hi)) {
+              hi = j;
+            }
+          }
+        } else {
+          int[] childMin = minIdx[l - 1], childMax = maxIdx[l - 1];
+          int child = b * 2;
+          lo = childMin[child];
+          hi = childMax[child];
+          if (child + 1 < bucketCount(n, level - 1)) {
+            if (source.getY(childMin[child + 1]) < source.getY(lo)) {
+              lo = childMin[child + 1];
+            }
+            if (source.getY(childMax[child + 1]) > source.getY(hi)) {
+              hi = childMax[child + 1];
+            }
+          }
+        }
+        minIdx[l][b] = lo;
+        maxIdx[l][b] = hi;
+      }
+    }
+
+    size = n;
+    version = source.getVersion();
+  }
+
+  private static int bucketCount(int n, int level) {
+    return (n + (1 << level) - 1) >> level;
+  }
+
+  private void ensureLevels(int n) {
+    int levels = 0;
+    while (minLevel + levels < 31 && (1 << (minLevel + levels)) <= n) {
+      levels++;
+    }
+    if (levels <= minIdx.length) {
+      return;
+    }
+    int[][] newMin = new int[levels][];
+    int[][] newMax = new int[levels][];
+    System.arraycopy(minIdx, 0, newMin, 0, minIdx.length);
+    System.arraycopy(maxIdx, 0, newMax, 0, maxIdx.length);
+    for (int l = minIdx.length; l < levels; l++) {
+      newMin[l] = new int[0];
+      newMax[l] = new int[0];
+    }
+    // the old size was below the bucket size of any new level, so update() builds them whole
+    minIdx = newMin;
+    maxIdx = newMax;
+  }
+}
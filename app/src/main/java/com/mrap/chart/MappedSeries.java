@@ -0,0 +1,120 @@
+package com.mrap.chart;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Series backed by a file of (x, y) pairs of little-endian doubles, 16 bytes per point, sorted
+ * by x. The file is mapped with {@link FileChannel#map} in chunks as they are first read and the
+ * OS only pages in what is touched, so the heap cost does not depend on the file size.
+ *
+ * <p>The y bounds need one pass over the file, done by {@link #prepare()} the first time it is
+ * called. The chart runs that pass, and building the decimation level of detail, off the main
+ * thread, in {@link ExpandingLineChart#setData} and {@link ExpandingLineChart#replaceSeries} as
+ * well as in their async variants.
+ */
+public class MappedSeries extends AbstractSeriesSource implements Closeable {
+  private static final int POINT_BYTES = 16;
+  // 8M points (128 MB) per mapping, far below the 2 GB limit of one MappedByteBuffer
+  private static final int CHUNK_SHIFT = 23;
+  private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+  private final RandomAccessFile file;
+  private final long filePoints;
+  private final AtomicReferenceArray<DoubleBuffer> chunks;
+  private final int count;
+
+  public MappedSeries(File file) throws IOException {
+    this.file = new RandomAccessFile(file, "r");
+    filePoints = this.file.length() / POINT_BYTES;
+    if (filePoints > Integer.MAX_VALUE) {
+      this.file.close();
+      throw new IOException("too many points " + filePoints);
+    }
+    chunks = new AtomicReferenceArray<>((int) ((filePoints + CHUNK_MASK) >> CHUNK_SHIFT));
+    count = (int) filePoints;
+  }
+
+  @Override
+  public int size() {
+    return count;
+  }
+
+  @Override
+  public double getX(int i) {
+    return chunk(i >> CHUNK_SHIFT).get((i & CHUNK_MASK) * 2);
+  }
+
+  @Override
+  public double getY(int i) {
+    return chunk(i >> CHUNK_SHIFT).get((i & CHUNK_MASK) * 2 + 1);
+  }
+
+  private DoubleBuffer chunk(int c) {
+    DoubleBuffer chunk = chunks.get(c);
+    if (chunk == null) {
+      chunk = map(c);
+    }
+    return chunk;
+  }
+
+  private DoubleBuffer map(int c) {
+    synchronized (chunks) {
+      DoubleBuffer chunk = chunks.get(c);
+      if (chunk != null) {
+        return chunk;
+      }
+      long start = (long) c << CHUNK_SHIFT;
+      long points = Math.min(1L << CHUNK_SHIFT, filePoints - start);
+      try {
+        MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY,
+          start * POINT_BYTES, points * POINT_BYTES);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        chunk = buffer.asDoubleBuffer();
+      } catch (IOException e) {
+        throw new IllegalStateException("cannot map points " + start + " to " + (start + points), e);
+      }
+      chunks.set(c, chunk);
+      return chunk;
+    }
+  }
+
+  /**
+   * The file is expected sorted, so this only computes the bounds, once.
+   */
+  @Override
+  public void prepare() {
+    if (!Double.isNaN(minY) || count == 0) {
+      return;
+    }
+    double lo = Double.POSITIVE_INFINITY, hi = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < count; i++) {
+      double y = getY(i);
+      if (y < lo) {
+        lo = y;
+      }
+      if (y > hi) {
+        hi = y;
+      }
+    }
+    minX = getX(0);
+    maxX = getX(count - 1);
+    minY = lo;
+    maxY = hi;
+  }
+
+  /**
+   * Closes the file. Chunks already mapped stay readable until they are garbage collected.
+   */
+  @Override
+  public void close() throws IOException {
+    file.close();
+  }
+}
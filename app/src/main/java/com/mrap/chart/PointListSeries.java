@@ -0,0 +1,30 @@
+package com.mrap.chart;
+
+import java.util.List;
+
+/**
+ * Reads an existing list of points in place instead of copying it into a {@link SeriesData}. The
+ * list must be sorted by x and is not modified.
+ */
+public class PointListSeries extends AbstractSeriesSource {
+  private final List<ExpandingLineChart.PointD> points;
+
+  public PointListSeries(List<ExpandingLineChart.PointD> points) {
+    this.points = points;
+  }
+
+  @Override
+  public int size() {
+    return points.size();
+  }
+
+  @Override
+  public double getX(int i) {
+    return points.get(i).x;
+  }
+
+  @Override
+  public double getY(int i) {
+    return points.get(i).y;
+  }
+}
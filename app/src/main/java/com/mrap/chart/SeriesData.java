@@ -0,0 +1,416 @@
+package com.mrap.chart;
+
+import java.util.List;
+
+/**
+ * Columnar storage for a single series: x and y values live in parallel growable
+ * {@code double[]} arrays instead of one boxed {@link ExpandingLineChart.PointD} per sample.
+ * Points can be evicted from the head in O(1), the freed space is reclaimed lazily when the
+ * arrays would otherwise have to grow.
+ */
+public class SeriesData implements SeriesSource {
+  private static final int INITIAL_CAPACITY = 16;
+
+  protected double[] xs;
+  protected double[] ys;
+  protected int offset = 0;
+  protected int size = 0;
+  protected int version = 0;
+
+  protected double minX = Double.NaN;
+  protected double maxX = Double.NaN;
+  protected double minY = Double.NaN;
+  protected double maxY = Double.NaN;
+  // appends extend the bounds, removals leave them to be rescanned by the next getter
+  protected boolean boundsValid = false;
+
+  public SeriesData() {
+    this(INITIAL_CAPACITY);
+  }
+
+  public SeriesData(int capacity) {
+    if (capacity < 1) {
+      capacity = 1;
+    }
+    xs = new double[capacity];
+    ys = new double[capacity];
+  }
+
+  /**
+   * Wraps the given arrays without copying. The series takes ownership of them.
+   */
+  public SeriesData(double[] xs, double[] ys, int size) {
+    if (xs.length < size || ys.length < size) {
+      throw new IllegalArgumentException("arrays shorter than size " + size);
+    }
+    this.xs = xs;
+    this.ys = ys;
+    this.size = size;
+  }
+
+  public static SeriesData fromPoints(List<ExpandingLineChart.PointD> points) {
+    SeriesData series = new SeriesData(points.size());
+    for (int i = 0; i < points.size(); i++) {
+      ExpandingLineChart.PointD p = points.get(i);
+      series.xs[i] = p.x;
+      series.ys[i] = p.y;
+    }
+    series.size = points.size();
+    return series;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Incremented on every modification, lets derived data (e.g. decimated copies) tell whether
+   * it is still up to date.
+   */
+  public int getVersion() {
+    return version;
+  }
+
+  public double getX(int i) {
+    return xs[offset + i];
+  }
+
+  public double getY(int i) {
+    return ys[offset + i];
+  }
+
+  /**
+   * Index of the first point with x greater than or equal to {@code x}, {@link #size()} if there
+   * is none. The series must be sorted by x.
+   */
+  public int lowerBound(double x) {
+    return lowerBound(x, 0, size);
+  }
+
+  /**
+   * Same as {@link #lowerBound(double)}, searching only between {@code from} and {@code to}.
+   */
+  public int lowerBound(double x, int from, int to) {
+    int lo = from, hi = to;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (xs[offset + mid] < x) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * Points {@code from} to {@code to - 1} as a series sharing this one's arrays. Read only, and
+   * only valid until this series is next modified.
+   */
+  SeriesData view(int from, int to) {
+    SeriesData view = new SeriesData(xs, ys, 0);
+    view.offset = offset + from;
+    view.size = to - from;
+    view.version = version;
+    return view;
+  }
+
+  public void add(double x, double y) {
+    ensureCapacity(size + 1);
+    xs[offset + size] = x;
+    ys[offset + size] = y;
+    size++;
+    version++;
+    if (boundsValid) {
+      extendBounds(offset + size - 1, offset + size);
+    }
+  }
+
+  public void addAll(double[] x, double[] y, int from, int count) {
+    ensureCapacity(size + count);
+    System.arraycopy(x, from, xs, offset + size, count);
+    System.arraycopy(y, from, ys, offset + size, count);
+    size += count;
+    version++;
+    if (boundsValid) {
+      extendBounds(offset + size - count, offset + size);
+    }
+  }
+
+  /**
+   * Drops the first {@code count} points.
+   */
+  public void removeHead(int count) {
+    if (count >= size) {
+      clear();
+      return;
+    }
+    offset += count;
+    size -= count;
+    version++;
+    boundsValid = false;
+  }
+
+  /**
+   * Drops every point from index {@code newSize} on.
+   */
+  public void truncate(int newSize) {
+    if (newSize < size) {
+      size = Math.max(newSize, 0);
+      version++;
+      boundsValid = false;
+    }
+  }
+
+  public void clear() {
+    offset = 0;
+    size = 0;
+    version++;
+    boundsValid = false;
+  }
+
+  public void ensureCapacity(int capacity) {
+    if (offset + capacity <= xs.length) {
+      return;
+    }
+    if (capacity <= xs.length && offset >= xs.length / 2) {
+      // enough room once the evicted head is reclaimed
+      compact();
+      return;
+    }
+    int newCapacity = Math.max(capacity, xs.length + (xs.length >> 1) + 1);
+    double[] newXs = new double[newCapacity];
+    double[] newYs = new double[newCapacity];
+    System.arraycopy(xs, offset, newXs, 0, size);
+    System.arraycopy(ys, offset, newYs, 0, size);
+    xs = newXs;
+    ys = newYs;
+    offset = 0;
+  }
+
+  protected void compact() {
+    if (offset == 0) {
+      return;
+    }
+    System.arraycopy(xs, offset, xs, 0, size);
+    System.arraycopy(ys, offset, ys, 0, size);
+    offset = 0;
+  }
+
+  /**
+   * Sorts by x if needed and computes the bounds, in a single pass when the points are already
+   * in order, which is the common case for time series. The bounds are available through
+   * {@link #getMinX()} and friends afterwards.
+   */
+  public void prepare() {
+    if (!scanBounds()) {
+      sortRuns();
+    }
+  }
+
+  /**
+   * Recomputes the bounds, returns whether the points are sorted by x.
+   */
+  private boolean scanBounds() {
+    minX = minY = Double.POSITIVE_INFINITY;
+    maxX = maxY = Double.NEGATIVE_INFINITY;
+    boolean sorted = true;
+    double prevX = Double.NEGATIVE_INFINITY;
+    for (int i = offset, end = offset + size; i < end; i++) {
+      double x = xs[i], y = ys[i];
+      if (x < prevX) {
+        sorted = false;
+      }
+      prevX = x;
+      if (x < minX) {
+        minX = x;
+      }
+      if (x > maxX) {
+        maxX = x;
+      }
+      if (y < minY) {
+        minY = y;
+      }
+      if (y > maxY) {
+        maxY = y;
+      }
+    }
+    boundsValid = true;
+    return sorted;
+  }
+
+  private void extendBounds(int from, int to) {
+    for (int i = from; i < to; i++) {
+      double x = xs[i], y = ys[i];
+      if (x < minX) {
+        minX = x;
+      }
+      if (x > maxX) {
+        maxX = x;
+      }
+      if (y < minY) {
+        minY = y;
+      }
+      if (y > maxY) {
+        maxY = y;
+      }
+    }
+  }
+
+  public double getMinX() {
+    if (!boundsValid) {
+      scanBounds();
+    }
+    return minX;
+  }
+
+  public double getMaxX() {
+    if (!boundsValid) {
+      scanBounds();
+    }
+    return maxX;
+  }
+
+  public double getMinY() {
+    if (!boundsValid) {
+      scanBounds();
+    }
+    return minY;
+  }
+
+  public double getMaxY() {
+    if (!boundsValid) {
+      scanBounds();
+    }
+    return maxY;
+  }
+
+  /**
+   * Stable sort of the points by x, same ordering as the old {@code Collections.sort} on
+   * {@code PointD} lists. Already sorted input costs one scan, and input made of sorted runs
+   * (e.g. a sorted history with an appended tail) is merged run by run instead of sorted from
+   * scratch.
+   */
+  public void sortByX() {
+    if (runEnd(offset, offset + size) == offset + size) {
+      return;
+    }
+    sortRuns();
+  }
+
+  private void sortRuns() {
+    compact();
+    double[] tmpX = new double[size], tmpY = new double[size];
+    sortRange(0, size, tmpX, tmpY);
+    version++;
+  }
+
+  /**
+   * End of the ascending run starting at {@code lo}.
+   */
+  private int runEnd(int lo, int hi) {
+    int i = lo + 1;
+    while (i < hi && xs[i] >= xs[i - 1]) {
+      i++;
+    }
+    return Math.min(i, hi);
+  }
+
+  private void sortRange(int lo, int hi, double[] tmpX, double[] tmpY) {
+    int firstRunEnd = runEnd(lo, hi);
+    if (firstRunEnd >= hi) {
+      return;
+    }
+
+    if (firstRunEnd - lo >= (hi - lo) / 2) {
+      // long sorted head and a short tail: sort the tail alone, then merge it in from the back
+      sortRange(firstRunEnd, hi, tmpX, tmpY);
+      mergeTail(lo, firstRunEnd, hi, tmpX, tmpY);
+      return;
+    }
+
+    // natural bottom-up merge sort over the ascending runs
+    int runs = 1;
+    for (int i = firstRunEnd; i < hi; i = runEnd(i, hi)) {
+      runs++;
+    }
+    int[] bounds = new int[runs + 1];
+    bounds[0] = lo;
+    int r = 1;
+    for (int i = lo; i < hi; ) {
+      i = runEnd(i, hi);
+      bounds[r++] = i;
+    }
+
+    double[] srcX = xs, srcY = ys;
+    double[] dstX = tmpX, dstY = tmpY;
+    while (runs > 1) {
+      int merged = 0;
+      for (int k = 0; k < runs; k += 2) {
+        int a = bounds[k];
+        int m = bounds[Math.min(k + 1, runs)];
+        int b = bounds[Math.min(k + 2, runs)];
+        merge(srcX, srcY, dstX, dstY, a, m, b);
+        bounds[++merged] = b;
+      }
+      runs = merged;
+
+      double[] t = srcX;
+      srcX = dstX;
+      dstX = t;
+      t = srcY;
+      srcY = dstY;
+      dstY = t;
+    }
+    if (srcX != xs) {
+      System.arraycopy(srcX, lo, xs, lo, hi - lo);
+      System.arraycopy(srcY, lo, ys, lo, hi - lo);
+    }
+  }
+
+  /**
+   * Merges the sorted ranges [lo, mid) and [mid, hi) in place, walking from the back so only the
+   * tail and the head points it displaces are moved.
+   */
+  private void mergeTail(int lo, int mid, int hi, double[] tmpX, double[] tmpY) {
+    int tail = hi - mid;
+    System.arraycopy(xs, mid, tmpX, 0, tail);
+    System.arraycopy(ys, mid, tmpY, 0, tail);
+    int i = mid - 1, j = tail - 1, k = hi - 1;
+    while (j >= 0 && i >= lo) {
+      if (xs[i] > tmpX[j]) {
+        xs[k] = xs[i];
+        ys[k--] = ys[i--];
+      } else {
+        xs[k] = tmpX[j];
+        ys[k--] = tmpY[j--];
+      }
+    }
+    while (j >= 0) {
+      xs[k] = tmpX[j];
+      ys[k--] = tmpY[j--];
+    }
+  }
+
+  private static void merge(double[] srcX, double[] srcY, double[] dstX, double[] dstY,
+                            int lo, int mid, int hi) {
+    int i = lo, j = mid, k = lo;
+    while (i < mid && j < hi) {
+      if (srcX[j] < srcX[i]) {
+        dstX[k] = srcX[j];
+        dstY[k++] = srcY[j++];
+      } else {
+        dstX[k] = srcX[i];
+        dstY[k++] = srcY[i++];
+      }
+    }
+    while (i < mid) {
+      dstX[k] = srcX[i];
+      dstY[k++] = srcY[i++];
+    }
+    while (j < hi) {
+      dstX[k] = srcX[j];
+      dstY[k++] = srcY[j++];
+    }
+  }
+}
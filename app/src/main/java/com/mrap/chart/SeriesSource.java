@@ -0,0 +1,41 @@
+package com.mrap.chart;
+
+/**
+ * Points of one series as the chart reads them, by index, sorted by x. The chart never copies a
+ * source: decimation and drawing read it in place, so data can stay wherever it already lives.
+ * {@link SeriesData} keeps points in primitive arrays and supports appending, other storages can
+ * extend {@link AbstractSeriesSource}, see {@link PointListSeries}, {@link CursorSeries} and {@link MappedSeries}.
+ */
+public interface SeriesSource {
+  int size();
+
+  double getX(int i);
+
+  double getY(int i);
+
+  /**
+   * Changes whenever the points change, lets derived data (e.g. decimated copies) tell whether it
+   * is still up to date.
+   */
+  int getVersion();
+
+  /**
+   * Computes the bounds, and sorts by x if the source can. Called once per setData, possibly on a
+   * worker thread with {@link ExpandingLineChart#setDataAsync}.
+   */
+  void prepare();
+
+  double getMinX();
+
+  double getMaxX();
+
+  double getMinY();
+
+  double getMaxY();
+
+  /**
+   * Index of the first point between {@code from} and {@code to} with x greater than or equal to
+   * {@code x}, {@code to} if there is none.
+   */
+  int lowerBound(double x, int from, int to);
+}
@@ -0,0 +1,178 @@
+package com.mrap.chart;
+
+import java.util.List;
+
+/**
+ * Picks which data values get a value label: values shared by several series are labelled once
+ * and labels that would overlap a previously placed one are dropped. The result is kept until
+ * the data, the chart size or the ticks range changes, so its cost follows the available space
+ * rather than the number of points.
+ */
+final class ValueLabelLayout {
+  double[] xValues = new double[0];
+  int xCount = 0;
+  double[] yValues = new double[0];
+  int yCount = 0;
+
+  private List<SeriesSource> series = null;
+  private List<SeriesSource> ySeries = null;
+  private boolean xEnabled, yEnabled;
+  private long versions = 0;
+  private int width = 0;
+  private int height = 0;
+  private double xFrom, xTo, yFrom, yTo;
+  private float xSpacing, ySpacing;
+
+  private int[] cursors = new int[0];
+  private double[] rowValues = new double[0];
+  private boolean[] rowUsed = new boolean[0];
+
+  /**
+   * Makes the next update() recompute the layout, for series replaced by others that may have
+   * the same version, or a new decimation of the y series.
+   */
+  void invalidate() {
+    series = null;
+  }
+
+  /**
+   * Recomputes the layout of the enabled axes if anything it depends on changed.
+   *
+   * @param ySeries what the y labels are picked from, the decimated series: with min/max
+   *                decimation they keep every column's extremes at a cost bounded by the width
+   * @param xSpacing minimum horizontal distance in pixels between two x labels
+   * @param ySpacing minimum vertical distance in pixels between two y labels
+   */
+  void update(List<SeriesSource> series, List<SeriesSource> ySeries, boolean xEnabled,
+              boolean yEnabled, int width, int height, double xFrom, double xTo,
+              double yFrom, double yTo, float xSpacing, float ySpacing) {
+    long versions = 0;
+    for (int i = 0; i < series.size(); i++) {
+      versions = versions * 31 + series.get(i).getVersion();
+    }
+    if (series == this.series && ySeries == this.ySeries && xEnabled == this.xEnabled &&
+        yEnabled == this.yEnabled && versions == this.versions && width == this.width &&
+        height == this.height && xFrom == this.xFrom && xTo == this.xTo && yFrom == this.yFrom &&
+        yTo == this.yTo && xSpacing == this.xSpacing && ySpacing == this.ySpacing) {
+      return;
+    }
+    this.series = series;
+    this.ySeries = ySeries;
+    this.xEnabled = xEnabled;
+    this.yEnabled = yEnabled;
+    this.versions = versions;
+    this.width = width;
+    this.height = height;
+    this.xFrom = xFrom;
+    this.xTo = xTo;
+    this.yFrom = yFrom;
+    this.yTo = yTo;
+    this.xSpacing = xSpacing;
+    this.ySpacing = ySpacing;
+
+    xCount = 0;
+    yCount = 0;
+    if (xEnabled) {
+      layoutX();
+    }
+    if (yEnabled) {
+      layoutY();
+    }
+  }
+
+  /**
+   * Walks all series in x order at once. After placing a label every series jumps straight to
+   * the first x far enough to the right, so points hidden under a label are never visited.
+   */
+  private void layoutX() {
+    xCount = 0;
+    if (width <= 0 || xTo <= xFrom) {
+      return;
+    }
+    double minStep = xSpacing * (xTo - xFrom) / width;
+
+    if (cursors.length < series.size()) {
+      cursors = new int[series.size()];
+    }
+    for (int i = 0; i < series.size(); i++) {
+      SeriesSource s = series.get(i);
+      cursors[i] = s.lowerBound(xFrom, 0, s.size());
+    }
+
+    while (true) {
+      double next = Double.POSITIVE_INFINITY;
+      for (int i = 0; i < series.size(); i++) {
+        SeriesSource s = series.get(i);
+        if (cursors[i] < s.size() && s.getX(cursors[i]) < next) {
+          next = s.getX(cursors[i]);
+        }
+      }
+      if (next > xTo) {
+        break;
+      }
+
+      if (xCount == xValues.length) {
+        double[] values = new double[Math.max(xCount * 2, 16)];
+        System.arraycopy(xValues, 0, values, 0, xCount);
+        xValues = values;
+      }
+      xValues[xCount++] = next;
+
+      double skipTo = Math.max(next + minStep, Math.nextUp(next));
+      for (int i = 0; i < series.size(); i++) {
+        SeriesSource s = series.get(i);
+        cursors[i] = s.lowerBound(skipTo, cursors[i], s.size());
+      }
+    }
+  }
+
+  /**
+   * y values are not sorted, so they are first bucketed per pixel row (first value seen wins),
+   * then rows are picked top down keeping the spacing. Only points in the x range are read.
+   */
+  private void layoutY() {
+    yCount = 0;
+    if (height <= 0 || yTo <= yFrom) {
+      return;
+    }
+    if (rowUsed.length < height + 1) {
+      rowUsed = new boolean[height + 1];
+      rowValues = new double[height + 1];
+    } else {
+      for (int r = 0; r <= height; r++) {
+        rowUsed[r] = false;
+      }
+    }
+
+    for (int i = 0; i < ySeries.size(); i++) {
+      SeriesSource s = ySeries.get(i);
+      int from = s.lowerBound(xFrom, 0, s.size());
+      int to = s.lowerBound(Math.nextUp(xTo), from, s.size());
+      for (int j = from; j < to; j++) {
+        double y = s.getY(j);
+        if (y < yFrom || y > yTo) {
+          continue;
+        }
+        int row = (int) ((y - yFrom) * height / (yTo - yFrom));
+        if (!rowUsed[row]) {
+          rowUsed[row] = true;
+          rowValues[row] = y;
+        }
+      }
+    }
+
+    int lastRow = Integer.MIN_VALUE;
+    for (int r = height; r >= 0; r--) {
+      if (!rowUsed[r] || (lastRow != Integer.MIN_VALUE && lastRow - r < ySpacing)) {
+        continue;
+      }
+      if (yCount == yValues.length) {
+        double[] values = new double[Math.max(yCount * 2, 16)];
+        System.arraycopy(yValues, 0, values, 0, yCount);
+        yValues = values;
+      }
+      yValues[yCount++] = rowValues[r];
+      lastRow = r;
+    }
+  }
+}
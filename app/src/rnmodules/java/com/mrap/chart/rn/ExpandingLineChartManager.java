@@ -3,6 +3,7 @@ package com.mrap.chart.rn;
 import android.util.Log;
 
 import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.common.MapBuilder;
 import com.facebook.react.uimanager.SimpleViewManager;
@@ -36,6 +37,55 @@ public class ExpandingLineChartManager extends SimpleViewManager<RnExpandingLine
     v.setData(data);
   }
 
+  public static final int COMMAND_APPEND_DATA = 1;
+  public static final int COMMAND_REPLACE_SERIES = 2;
+  public static final int COMMAND_SET_VIEWPORT = 3;
+  public static final int COMMAND_SET_LABELS = 4;
+
+  @Override
+  public Map<String, Integer> getCommandsMap() {
+    return MapBuilder.of(
+            "appendData", COMMAND_APPEND_DATA,
+            "replaceSeries", COMMAND_REPLACE_SERIES,
+            "setViewport", COMMAND_SET_VIEWPORT,
+            "setLabels", COMMAND_SET_LABELS);
+  }
+
+  @Override
+  public void receiveCommand(RnExpandingLineChart v, int commandId, ReadableArray args) {
+    switch (commandId) {
+      case COMMAND_APPEND_DATA:
+        v.appendData(args);
+        break;
+      case COMMAND_REPLACE_SERIES:
+        v.replaceSeries(args);
+        break;
+      case COMMAND_SET_VIEWPORT:
+        v.setViewport(args);
+        break;
+      case COMMAND_SET_LABELS:
+        v.setLabels(args);
+        break;
+      default:
+        Log.w(TAG, "unknown command " + commandId);
+    }
+  }
+
+  @Override
+  public void receiveCommand(RnExpandingLineChart v, String commandId, ReadableArray args) {
+    // newer React Native sends the command name instead of its id
+    Integer id = getCommandsMap().get(commandId);
+    if (id == null) {
+      try {
+        id = Integer.parseInt(commandId);
+      } catch (NumberFormatException e) {
+        Log.w(TAG, "unknown command " + commandId);
+        return;
+      }
+    }
+    receiveCommand(v, id, args);
+  }
+
 //  @ReactProp(name="fps")
 //  public void setFps(RnExpandingLineChart v, int fps) {
 //    v.setFps(fps);
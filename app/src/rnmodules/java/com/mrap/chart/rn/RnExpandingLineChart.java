@@ -1,20 +1,32 @@
 package com.mrap.chart.rn;
 
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.SystemClock;
 import android.util.AttributeSet;
+import android.util.Base64;
 import android.util.Log;
-import android.view.View;
 
 import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.ReactContext;
 import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.ReadableMapKeySetIterator;
+import com.facebook.react.bridge.ReadableType;
+import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.uimanager.events.RCTEventEmitter;
 import com.mrap.chart.ExpandingLineChart;
+import com.mrap.chart.SeriesData;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 
 import androidx.annotation.Nullable;
 
@@ -22,16 +34,79 @@ public class RnExpandingLineChart extends ExpandingLineChart {
 
     private static final String TAG = "RnExpandingLineChart";
 
+    /**
+     * Formats labels in JS. Values that are not formatted yet are collected while the chart
+     * draws and sent in one topFormatXLabel / topFormatYLabel event with a "values" array. JS
+     * answers with the setLabels command, the results are cached by value and the labels are
+     * redrawn. Until then the default formatting is shown.
+     */
     public static class RnLabelFormatter implements LabelFormatterCallback {
 
+        private static final int MAX_RESULTS = 4096;
+        // values asked for longer ago without an answer are asked for once more, e.g. after a
+        // JS reload dropped the event
+        private static final long REQUEST_TIMEOUT_MS = 2000;
+
         ReactContext reactContext;
-        View view;
+        ExpandingLineChart view;
         String eventName;
+        boolean xAxis;
+
+        private final HashMap<Double, String> results = new HashMap<>();
+        private final LinkedHashSet<Double> pending = new LinkedHashSet<>();
+        // value to the uptime it was sent to JS at
+        private final HashMap<Double, Long> requested = new HashMap<>();
+        // values already asked for twice, left unformatted if that got no answer either
+        private final HashSet<Double> retried = new HashSet<>();
+        private boolean flushPosted = false;
+
+        private final Runnable flushRunnable = new Runnable() {
+            @Override
+            public void run() {
+                flushPosted = false;
+                if (pending.isEmpty()) {
+                    return;
+                }
+                if (requested.size() + pending.size() > MAX_RESULTS) {
+                    requested.clear();
+                    retried.clear();
+                }
+                long now = SystemClock.uptimeMillis();
+                WritableArray values = Arguments.createArray();
+                for (Double value : pending) {
+                    values.pushDouble(value);
+                    requested.put(value, now);
+                }
+                pending.clear();
+
+                WritableMap args = Arguments.createMap();
+                args.putArray("values", values);
+                reactContext.getJSModule(RCTEventEmitter.class).receiveEvent(view.getId(),
+                        eventName, args);
+
+                view.removeCallbacks(retryRunnable);
+                view.postDelayed(retryRunnable, REQUEST_TIMEOUT_MS);
+            }
+        };
+
+        // redraws the labels once unanswered values have timed out, so they are asked again
+        private final Runnable retryRunnable = new Runnable() {
+            @Override
+            public void run() {
+                for (Double value : requested.keySet()) {
+                    if (!retried.contains(value)) {
+                        invalidateAxis();
+                        return;
+                    }
+                }
+            }
+        };
 
-        public RnLabelFormatter(ReactContext context, View view, String axis) {
+        public RnLabelFormatter(ReactContext context, ExpandingLineChart view, String axis) {
             reactContext = context;
             this.view = view;
-            if (axis.toLowerCase().equals("x")) {
+            xAxis = axis.toLowerCase().equals("x");
+            if (xAxis) {
                 eventName = "topFormatXLabel";
             } else if (axis.toLowerCase().equals("y")) {
                 eventName = "topFormatYLabel";
@@ -40,17 +115,63 @@ public class RnExpandingLineChart extends ExpandingLineChart {
 
         @Override
         public String onLabelFormat(double value) {
-            WritableMap args = Arguments.createMap();
-            args.putDouble("value", value);
-            args.putString("result", "");
-//            Log.d(TAG, "event onLabelFormat " + eventName + " " + value);
-            reactContext.getJSModule(RCTEventEmitter.class).receiveEvent(view.getId(),
-                    eventName, args);
-            Log.d(TAG, "event onLabelFormat " + eventName + " value " + value + " result " + args.getString("result"));
-            return args.getString("result");
+            String result = results.get(value);
+            if (result != null) {
+                return result;
+            }
+            Long requestedAt = requested.get(value);
+            if (requestedAt != null) {
+                if (SystemClock.uptimeMillis() - requestedAt < REQUEST_TIMEOUT_MS ||
+                        !retried.add(value)) {
+                    return null;
+                }
+            }
+            pending.add(value);
+            if (!flushPosted) {
+                flushPosted = true;
+                // once all labels of this draw are collected
+                view.post(flushRunnable);
+            }
+            return null;
+        }
+
+        /**
+         * Forgets the values waiting for an answer, they are asked for again on the next draw.
+         * Formatted labels are kept.
+         */
+        void reset() {
+            pending.clear();
+            requested.clear();
+            retried.clear();
+        }
+
+        void setLabels(ReadableArray values, ReadableArray labels) {
+            if (results.size() + values.size() > MAX_RESULTS) {
+                results.clear();
+            }
+            for (int i = 0; i < values.size() && i < labels.size(); i++) {
+                double value = values.getDouble(i);
+                requested.remove(value);
+                retried.remove(value);
+                if (!labels.isNull(i)) {
+                    results.put(value, labels.getString(i));
+                }
+            }
+            invalidateAxis();
+        }
+
+        private void invalidateAxis() {
+            if (xAxis) {
+                view.invalidateXLabels();
+            } else {
+                view.invalidateYLabels();
+            }
         }
     }
 
+    private RnLabelFormatter xJsFormatter = null;
+    private RnLabelFormatter yJsFormatter = null;
+
     public RnExpandingLineChart(Context context) {
         this(context, null);
     }
@@ -63,7 +184,7 @@ public class RnExpandingLineChart extends ExpandingLineChart {
 
     void setData(ReadableMap data) {
         ArrayList<String> legend = new ArrayList<>();
-        ArrayList<ArrayList<PointD>> datasets = new ArrayList<>();
+        ArrayList<SeriesData> series = new ArrayList<>();
         ArrayList<String> colors = new ArrayList<>();
 
         ReadableArray legendRn = data.getArray("legend");
@@ -77,10 +198,15 @@ public class RnExpandingLineChart extends ExpandingLineChart {
             String color = datasetContainer.getString("color");
             colors.add(color);
 
+            if (datasetContainer.hasKey("x") && datasetContainer.hasKey("y")) {
+                series.add(parsePacked(datasetContainer));
+                continue;
+            }
+
             ReadableMap dataSet = datasetContainer.getMap("data");
 
-            ArrayList<PointD> dataset = new ArrayList<>();
-            datasets.add(dataset);
+            SeriesData dataset = new SeriesData();
+            series.add(dataset);
 
             ReadableMapKeySetIterator it = dataSet.keySetIterator();
             for (; it.hasNextKey(); ) {
@@ -97,14 +223,14 @@ public class RnExpandingLineChart extends ExpandingLineChart {
 //                    Log.d(TAG, "java " + (long) datetime + " " + (long) val);
 //                }
 
-                dataset.add(new PointD(datetime, val));
+                dataset.add(datetime, val);
             }
         }
 
         Params params = new Params();
 
         params.legend = legend;
-        params.datasets = datasets;
+        params.series = series;
         params.colors = colors;
 
         if (data.hasKey("xTicks")) {
@@ -120,19 +246,53 @@ public class RnExpandingLineChart extends ExpandingLineChart {
         if (data.hasKey("yValueLabelEnabled")) {
             params.yValueLabelEnabled = data.getBoolean("yValueLabelEnabled");
         }
+        if (data.hasKey("opaqueBackground")) {
+            // half the bitmap memory, for charts on a solid background
+            params.bitmapConfig = Bitmap.Config.RGB_565;
+            params.chartBackground = Color.parseColor(data.getString("opaqueBackground"));
+        }
+        if (data.hasKey("lineStrips")) {
+            params.lineMode = data.getBoolean("lineStrips") ? LINE_STRIP : LINE_SEGMENTS;
+        }
+        if (data.hasKey("viewportGestures")) {
+            params.viewportGestures = data.getBoolean("viewportGestures");
+        }
         if (data.hasKey("fps")) {
             params.fps = data.getInt("fps");
         }
         if (data.hasKey("drawCountPerFrame")) {
             params.drawCountPerFrame = data.getInt("drawCountPerFrame");
         }
+        if (data.hasKey("revealDurationMs")) {
+            params.revealDurationMs = data.getInt("revealDurationMs");
+        }
+        if (data.hasKey("frameBudgetMs")) {
+            params.frameBudgetMs = (float) data.getDouble("frameBudgetMs");
+        }
+        if (data.hasKey("skipAnimation")) {
+            params.skipAnimation = data.getBoolean("skipAnimation");
+        }
         if (data.hasKey("xType")) {
             String val = data.getString("xType");
             params.xType = val.equals("number") ? TYPE_NUMBER : val.equals("date") ? TYPE_DATE : -1;
+            if (val.equals("js")) {
+                if (xJsFormatter == null) {
+                    xJsFormatter = new RnLabelFormatter((ReactContext) getContext(), this, "x");
+                }
+                xJsFormatter.reset();
+                params.xLabelFormatterCallback = xJsFormatter;
+            }
         }
         if (data.hasKey("yType")) {
             String val = data.getString("yType");
             params.yType = val.equals("number") ? TYPE_NUMBER : val.equals("date") ? TYPE_DATE : -1;
+            if (val.equals("js")) {
+                if (yJsFormatter == null) {
+                    yJsFormatter = new RnLabelFormatter((ReactContext) getContext(), this, "y");
+                }
+                yJsFormatter.reset();
+                params.yLabelFormatterCallback = yJsFormatter;
+            }
         }
         if (data.hasKey("xFormat")) {
             String val = data.getString("xFormat");
@@ -147,6 +307,103 @@ public class RnExpandingLineChart extends ExpandingLineChart {
         setParams(params);
     }
 
+    /**
+     * Appends points to one series, args are [series name or index, {x, y}] with the columns in
+     * the same format as in the data prop.
+     */
+    void appendData(ReadableArray args) {
+        int seriesIndex = parseSeriesIndex(args, 0);
+        if (seriesIndex < 0) {
+            return;
+        }
+        ReadableMap points = args.getMap(1);
+        double[] xs = parseColumn(points, "x");
+        double[] ys = parseColumn(points, "y");
+        if (xs.length != ys.length) {
+            Log.w(TAG, "appendData x and y sizes differ, " + xs.length + " vs " + ys.length);
+            return;
+        }
+        appendPoints(seriesIndex, xs, ys);
+    }
+
+    /**
+     * Replaces the points of one series, args are [series name or index, {x, y}]. Sorted off the
+     * main thread.
+     */
+    void replaceSeries(ReadableArray args) {
+        int seriesIndex = parseSeriesIndex(args, 0);
+        if (seriesIndex < 0) {
+            return;
+        }
+        replaceSeriesAsync(seriesIndex, parsePacked(args.getMap(1)));
+    }
+
+    /**
+     * Shows only [xMin, xMax], args are [xMin, xMax]. A null bound goes back to fitting the data
+     * on that side.
+     */
+    void setViewport(ReadableArray args) {
+        setXRange(args.isNull(0) ? Double.NaN : args.getDouble(0),
+                args.isNull(1) ? Double.NaN : args.getDouble(1));
+    }
+
+    /**
+     * Results of a format event, args are [axis, values, labels].
+     */
+    void setLabels(ReadableArray args) {
+        String axis = args.getString(0).toLowerCase();
+        RnLabelFormatter formatter = axis.equals("x") ? xJsFormatter : axis.equals("y") ? yJsFormatter : null;
+        if (formatter == null) {
+            Log.w(TAG, "setLabels for axis " + axis + " without js formatter");
+            return;
+        }
+        formatter.setLabels(args.getArray(1), args.getArray(2));
+    }
+
+    private int parseSeriesIndex(ReadableArray args, int i) {
+        int seriesIndex;
+        if (args.getType(i) == ReadableType.String) {
+            seriesIndex = legendList.indexOf(args.getString(i));
+        } else {
+            seriesIndex = args.getInt(i);
+        }
+        if (seriesIndex < 0 || seriesIndex >= legendList.size()) {
+            Log.w(TAG, "unknown series " + (args.getType(i) == ReadableType.String ? args.getString(i) : args.getInt(i)));
+            return -1;
+        }
+        return seriesIndex;
+    }
+
+    /**
+     * Reads a series sent as two columns, "x" and "y". Each one is either a plain number array or
+     * a base64 string of little-endian doubles, the latter being the cheapest to send over the
+     * bridge for large series.
+     */
+    private static SeriesData parsePacked(ReadableMap container) {
+        double[] xs = parseColumn(container, "x");
+        double[] ys = parseColumn(container, "y");
+        if (xs.length != ys.length) {
+            Log.w(TAG, "x and y sizes differ, " + xs.length + " vs " + ys.length);
+        }
+        return new SeriesData(xs, ys, Math.min(xs.length, ys.length));
+    }
+
+    private static double[] parseColumn(ReadableMap container, String key) {
+        if (container.getType(key) == ReadableType.String) {
+            byte[] bytes = Base64.decode(container.getString(key), Base64.DEFAULT);
+            DoubleBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            double[] values = new double[buffer.remaining()];
+            buffer.get(values);
+            return values;
+        }
+        ReadableArray array = container.getArray(key);
+        double[] values = new double[array.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = array.getDouble(i);
+        }
+        return values;
+    }
+
     private void parseTicks(ReadableMap data, Params params, String key) {
         ReadableMap ticksRn = data.getMap(key);
         Ticks ticks = new Ticks();
@@ -0,0 +1,208 @@
+package com.mrap.chart;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.view.View;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+/**
+ * Runs animation frames of a set up chart and fails if drawChart or onDraw allocate, for every
+ * line mode, with and without the background renderer, revealing by point count or by duration.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+public class FrameAllocationTest {
+
+  @ParameterizedRobolectricTestRunner.Parameters(name = "lineMode={0} background={1} timed={2}")
+  public static Collection<Object[]> modes() {
+    ArrayList<Object[]> modes = new ArrayList<>();
+    for (int lineMode : new int[]{ExpandingLineChart.LINE_SEGMENTS, ExpandingLineChart.LINE_STRIP}) {
+      for (boolean background : new boolean[]{false, true}) {
+        for (boolean timed : new boolean[]{false, true}) {
+          modes.add(new Object[]{lineMode, background, timed});
+        }
+      }
+    }
+    return modes;
+  }
+
+  private final int lineMode;
+  private final boolean background;
+  private final boolean timed;
+
+  public FrameAllocationTest(int lineMode, boolean background, boolean timed) {
+    this.lineMode = lineMode;
+    this.background = background;
+    this.timed = timed;
+  }
+
+  /**
+   * Swallows every draw call so only the chart's own allocations are counted.
+   */
+  static class NoOpCanvas extends Canvas {
+    @Override
+    public void drawLines(float[] pts, int offset, int count, Paint paint) {
+    }
+
+    @Override
+    public void drawLine(float startX, float startY, float stopX, float stopY, Paint paint) {
+    }
+
+    @Override
+    public void drawCircle(float cx, float cy, float radius, Paint paint) {
+    }
+
+    @Override
+    public void drawText(String text, float x, float y, Paint paint) {
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, Rect src, Rect dst, Paint paint) {
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, float left, float top, Paint paint) {
+    }
+
+    @Override
+    public void drawColor(int color, PorterDuff.Mode mode) {
+    }
+
+    @Override
+    public void drawPath(Path path, Paint paint) {
+    }
+  }
+
+  /**
+   * The shadow of Path records every point, this one keeps nothing.
+   */
+  static class NoOpPath extends Path {
+    @Override
+    public void rewind() {
+    }
+
+    @Override
+    public void moveTo(float x, float y) {
+    }
+
+    @Override
+    public void lineTo(float x, float y) {
+    }
+  }
+
+  private static long allocatedBytes() {
+    com.sun.management.ThreadMXBean bean =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private ExpandingLineChart createChart(int pointCount, int drawCountPerFrame) {
+    Context context = ApplicationProvider.getApplicationContext();
+    ExpandingLineChart chart = new ExpandingLineChart(context);
+    chart.stripPath = new NoOpPath();
+
+    ArrayList<String> legend = new ArrayList<>();
+    ArrayList<SeriesData> series = new ArrayList<>();
+    ArrayList<String> colors = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      SeriesData data = new SeriesData(pointCount);
+      for (int j = 0; j < pointCount; j++) {
+        data.add(j, Math.sin(j * 0.01 + i) * 100);
+      }
+      legend.add("S" + i);
+      series.add(data);
+      colors.add("#FF0000");
+    }
+
+    chart.setDrawCountPerFrame(drawCountPerFrame);
+    chart.setLineMode(lineMode);
+    if (timed) {
+      // a few points per frame, the frames below are a second apart
+      chart.setRevealDuration(pointCount * 250L, 4);
+    }
+    chart.measure(View.MeasureSpec.makeMeasureSpec(800, View.MeasureSpec.EXACTLY),
+      View.MeasureSpec.makeMeasureSpec(600, View.MeasureSpec.EXACTLY));
+    chart.layout(0, 0, 800, 600);
+    chart.setRenderInBackground(background);
+    chart.setData(legend, series, colors);
+    if (!background) {
+      chart.bmpCanvas = new NoOpCanvas();
+    }
+    return chart;
+  }
+
+  private void assertFramesDoNotAllocate(ExpandingLineChart chart) {
+    com.sun.management.ThreadMXBean bean =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(bean.isThreadAllocatedMemorySupported());
+
+    Canvas canvas = new NoOpCanvas();
+    long frameTime = 1;
+    long step = 1000000000L;
+
+    // warm up: clear frame, decimation, label layout, buffer growth
+    for (int i = 0; i < 20; i++) {
+      chart.doAnimationFrame(frameTime += step);
+      awaitRenderer(chart);
+      chart.onDraw(canvas);
+    }
+    assertTrue("chart finished before measuring", chart.running);
+
+    // what reading the counter costs by itself
+    long overhead = -allocatedBytes() + allocatedBytes();
+
+    long before = allocatedBytes();
+    for (int i = 0; i < 100; i++) {
+      chart.doAnimationFrame(frameTime += step);
+      awaitRenderer(chart);
+      chart.onDraw(canvas);
+    }
+    long allocated = allocatedBytes() - before - overhead;
+
+    assertTrue("chart finished while measuring", chart.running);
+    assertEquals("bytes allocated by 100 frames", 0, allocated);
+  }
+
+  /**
+   * Waits for the batch submitted by the last frame to be published, so that every frame
+   * hands the renderer a new batch. The render thread's own allocations are not counted.
+   */
+  private static void awaitRenderer(ExpandingLineChart chart) {
+    BackgroundRenderer renderer = chart.renderer;
+    if (renderer == null) {
+      return;
+    }
+    long deadline = System.nanoTime() + 5000000000L;
+    while (!renderer.isReady() && !renderer.isWaitingForDraw()) {
+      assertTrue("render thread did not publish", System.nanoTime() < deadline);
+      Thread.yield();
+    }
+  }
+
+  @Test
+  public void framesDoNotAllocate() {
+    assertFramesDoNotAllocate(createChart(20000, 1));
+  }
+
+  @Test
+  public void largeBatchFramesDoNotAllocate() {
+    assertFramesDoNotAllocate(createChart(200000, 4));
+  }
+}
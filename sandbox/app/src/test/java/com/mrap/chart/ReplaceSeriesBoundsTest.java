@@ -0,0 +1,75 @@
+package com.mrap.chart;
+
+import android.content.Context;
+import android.view.View;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Replacing a series recomputes the chart bounds from every series, including points appended
+ * to the others since setData.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ReplaceSeriesBoundsTest {
+
+  private static SeriesData line(int from, int to, double y) {
+    SeriesData data = new SeriesData();
+    for (int j = from; j < to; j++) {
+      data.add(j, y);
+    }
+    return data;
+  }
+
+  @Test
+  public void replaceKeepsAppendedBounds() {
+    Context context = ApplicationProvider.getApplicationContext();
+    ExpandingLineChart chart = new ExpandingLineChart(context);
+    chart.measure(View.MeasureSpec.makeMeasureSpec(800, View.MeasureSpec.EXACTLY),
+      View.MeasureSpec.makeMeasureSpec(600, View.MeasureSpec.EXACTLY));
+    chart.layout(0, 0, 800, 600);
+
+    ArrayList<String> legend = new ArrayList<>();
+    ArrayList<SeriesData> series = new ArrayList<>();
+    ArrayList<String> colors = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      legend.add("S" + i);
+      series.add(line(0, 100, 10));
+      colors.add("#FF0000");
+    }
+    chart.setData(legend, series, colors);
+
+    chart.appendPoints(0, new double[]{100, 200}, new double[]{-50, 500});
+    chart.replaceSeries(1, line(0, 50, 20));
+
+    assertEquals(0, chart.xMin, 0);
+    assertEquals(200, chart.xMax, 0);
+    assertEquals(-50, chart.yMin, 0);
+    assertEquals(500, chart.yMax, 0);
+    assertTrue(chart.xTicks.valueMax >= 200);
+    assertTrue(chart.yTicks.valueMin <= -50);
+    assertTrue(chart.yTicks.valueMax >= 500);
+  }
+
+  @Test
+  public void seriesBoundsFollowMutations() {
+    SeriesData data = line(0, 10, 1);
+    data.prepare();
+    data.add(10, 7);
+    data.addAll(new double[]{11, 12}, new double[]{-3, 2}, 0, 2);
+    assertEquals(12, data.getMaxX(), 0);
+    assertEquals(-3, data.getMinY(), 0);
+    assertEquals(7, data.getMaxY(), 0);
+
+    data.removeHead(11);
+    assertEquals(11, data.getMinX(), 0);
+    assertEquals(2, data.getMaxY(), 0);
+  }
+}